@@ -0,0 +1,140 @@
+package lol.hyper.cobaltdirectory;
+
+import lol.hyper.cobaltdirectory.instance.Instance;
+import lol.hyper.cobaltdirectory.requests.RequestTiming;
+import lol.hyper.cobaltdirectory.requests.TunnelSample;
+import lol.hyper.cobaltdirectory.tests.TestResult;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The messages between the coordinator and its workers. Each message is one line of JSON
+ * with a "type".
+ * <p>
+ * Coordinator to worker: "shard" with the instances to test, and "exit" once there is no more work.
+ * Worker to coordinator: "hello" with the shared secret once connected, "result" for every test result as it comes in,
+ * "instance" with what the API check found for each instance, and "done" once the shard is finished.
+ */
+final class ClusterProtocol {
+
+    private ClusterProtocol() {
+    }
+
+    /**
+     * The sending side of a connection. A worker sends results from every test thread, so a
+     * send holds a lock while it writes. It's a ReentrantLock, so virtual threads that wait on
+     * a slow socket don't pin their carrier thread.
+     */
+    static final class Channel {
+
+        private final BufferedWriter writer;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        Channel(OutputStream out) {
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Send a message and flush it, so results get there as they happen.
+         *
+         * @param message The message.
+         * @throws IOException If the connection is gone.
+         */
+        void send(JSONObject message) throws IOException {
+            lock.lock();
+            try {
+                writer.write(message.toString());
+                writer.newLine();
+                writer.flush();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    static JSONObject message(String type) {
+        JSONObject message = new JSONObject();
+        message.put("type", type);
+        return message;
+    }
+
+    /**
+     * The fields that identify an instance, for handing it to a worker.
+     */
+    static JSONObject instanceToJSON(Instance instance) {
+        JSONObject json = new JSONObject();
+        json.put("api", instance.getApi());
+        json.put("frontend", instance.getFrontEnd());
+        json.put("protocol", instance.getProtocol());
+        return json;
+    }
+
+    static Instance instanceFromJSON(JSONObject json) {
+        return new Instance(json.optString("frontend", null), json.getString("api"), json.getString("protocol"));
+    }
+
+    /**
+     * What the API check found for an instance.
+     */
+    static JSONObject stateToJSON(Instance instance) {
+        JSONObject json = new JSONObject();
+        json.put("api", instance.getApi());
+        json.put("apiWorking", instance.isApiWorking());
+        json.put("version", instance.getVersion());
+        json.put("startTime", instance.getStartTime());
+        json.put("remote", instance.getRemote());
+        json.put("is10", instance.is10());
+        json.put("fork", instance.isFork());
+        json.put("turnstile", instance.hasTurnstile());
+        json.put("aliasOf", instance.getAliasOf());
+        json.put("frontendAliasOf", instance.getFrontEndAliasOf());
+        if (instance.getNetworkTiming() != null) {
+            json.put("network", instance.getNetworkTiming().toJSON());
+        }
+        return json;
+    }
+
+    static void applyState(Instance instance, JSONObject json) {
+        instance.setApiWorking(json.optBoolean("apiWorking"));
+        instance.setVersion(json.optString("version", null));
+        instance.setStartTime(json.optLong("startTime", 0L));
+        instance.setRemote(json.optString("remote", null));
+        instance.setIs10(json.optBoolean("is10"));
+        instance.setFork(json.optBoolean("fork"));
+        instance.setTurnstile(json.optBoolean("turnstile"));
+        instance.setAliasOf(json.optString("aliasOf", null));
+        instance.setFrontEndAliasOf(json.optString("frontendAliasOf", null));
+        JSONObject network = json.optJSONObject("network");
+        if (network != null) {
+            instance.setNetworkTiming(RequestTiming.fromJSON(network));
+        }
+    }
+
+    static JSONObject resultToJSON(TestResult result) {
+        JSONObject json = new JSONObject();
+        json.put("service", result.service());
+        json.put("status", result.status());
+        json.put("message", result.message());
+        json.put("testedAt", result.testedAt());
+        if (result.timing() != null) {
+            json.put("timing", result.timing().toJSON());
+        }
+        if (result.tunnel() != null) {
+            json.put("tunnel", result.tunnel().toJSON());
+        }
+        return json;
+    }
+
+    static TestResult resultFromJSON(JSONObject json) {
+        JSONObject timing = json.optJSONObject("timing");
+        JSONObject tunnel = json.optJSONObject("tunnel");
+        return new TestResult(json.getString("service"), json.getBoolean("status"), json.optString("message", ""),
+                timing == null ? null : RequestTiming.fromJSON(timing), tunnel == null ? null : TunnelSample.fromJSON(tunnel), json.getLong("testedAt"));
+    }
+}
@@ -1,13 +1,26 @@
 package lol.hyper.cobaltdirectory;
 
+import lol.hyper.cobaltdirectory.history.HistoryStore;
+import lol.hyper.cobaltdirectory.history.Uptime;
+import lol.hyper.cobaltdirectory.instance.Backends;
 import lol.hyper.cobaltdirectory.instance.Instance;
 import lol.hyper.cobaltdirectory.requests.ApiCheck;
+import lol.hyper.cobaltdirectory.requests.HttpTransport;
+import lol.hyper.cobaltdirectory.requests.ProxyPool;
+import lol.hyper.cobaltdirectory.requests.ResponseCache;
+import lol.hyper.cobaltdirectory.requests.TimeoutPolicy;
+import lol.hyper.cobaltdirectory.requests.Transport;
+import lol.hyper.cobaltdirectory.server.ResultsServer;
+import lol.hyper.cobaltdirectory.server.Snapshot;
 import lol.hyper.cobaltdirectory.services.Services;
+import lol.hyper.cobaltdirectory.tests.RunBudget;
 import lol.hyper.cobaltdirectory.tests.Test;
 import lol.hyper.cobaltdirectory.tests.TestBuilder;
+import lol.hyper.cobaltdirectory.tests.TestHistory;
 import lol.hyper.cobaltdirectory.tests.TestResult;
+import lol.hyper.cobaltdirectory.utils.AtomicOutput;
 import lol.hyper.cobaltdirectory.utils.FileUtil;
-import lol.hyper.cobaltdirectory.utils.ProxyInfo;
+import lol.hyper.cobaltdirectory.utils.PageIndex;
 import lol.hyper.cobaltdirectory.utils.StringUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -16,6 +29,9 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
@@ -25,7 +41,15 @@ public class CobaltDirectory {
     private static Logger logger;
     private static String USER_AGENT;
     private static final ReusableMessageFactory MESSAGE_FACTORY = new ReusableMessageFactory();
-    private static ProxyInfo proxyInfo = null;
+    private static ProxyPool proxyPool;
+    private static Transport transport;
+    private static ResponseCache responseCache;
+    private static TimeoutPolicy timeoutPolicy;
+    private static TestHistory testHistory;
+    private static HistoryStore historyStore;
+    private static ResultsServer resultsServer;
+    // the run that is testing right now, so a worker can stop it
+    private static volatile TestBuilder currentRun;
 
     static class TestCounter {
         int success;
@@ -35,24 +59,60 @@ public class CobaltDirectory {
     public static void main(String[] args) {
         long startTime = System.nanoTime();
         System.setProperty("log4j.configurationFile", "log4j2config.xml");
+        // keep idle connections around between tests for the same instance
+        System.setProperty("jdk.httpclient.keepalive.timeout", "120");
         logger = LogManager.getLogger(CobaltDirectory.class);
-        logger.info("Running with args: {}", Arrays.toString(args));
+        // the worker secret has no business in the logs
+        logger.info("Running with args: {}", Arrays.stream(args).map(arg -> arg.toLowerCase(Locale.ROOT).startsWith("secret=") ? "secret=***" : arg).toList());
 
         Init init = new Init();
         init.start(args);
 
-        // check if we should use a proxy
-        if (init.useProxy()) {
-            proxyInfo = new ProxyInfo(init.getProxyHost(), init.getProxyPort());
-        }
-
         // set the user agent
         USER_AGENT = init.getUserAgent();
 
+        // spread requests over the proxies in proxy.json, if there are any
+        proxyPool = new ProxyPool(init.getProxies(), init.getProxySelection(), init.getProxyHealthCheck(), USER_AGENT);
+        proxyPool.start();
+
+        // long-lived clients for every request, so connections are reused
+        transport = new HttpTransport(USER_AGENT, proxyPool);
+        // validators from the last run, so unchanged APIs and frontends can answer 304
+        responseCache = new ResponseCache(new File("cache.json"));
+        responseCache.load();
+        // how long each host took last time, so timeouts fit the host instead of one fixed value
+        timeoutPolicy = new TimeoutPolicy(new File("latency.json"));
+        timeoutPolicy.load();
+        // recent outcomes of every test, so stable ones can be skipped
+        testHistory = new TestHistory(new File("history.json"));
+        testHistory.load();
+
         // load the tests into services
-        Services services = new Services(init.getTests());
+        Services services = new Services(init.getTests(), init.getLimits());
         services.importTests();
 
+        // a worker takes its instances from the coordinator, and leaves the output files to it
+        if (init.getWorker() != null) {
+            new Worker(init.getWorker(), init, services).run();
+            System.exit(0);
+        }
+
+        // every result from every run, for uptime
+        historyStore = new HistoryStore(new File("history"));
+        historyStore.open();
+
+        // serve each run's output from memory, if asked to, on loopback unless bind= is set
+        if (init.getServePort() >= 0) {
+            try {
+                InetAddress address = init.getBind() == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(init.getBind());
+                resultsServer = new ResultsServer(address, init.getServePort());
+                resultsServer.start();
+            } catch (IOException exception) {
+                logger.error("Unable to serve results on port {}", init.getServePort(), exception);
+                resultsServer = null;
+            }
+        }
+
         // shuffle the lists here
         Collections.shuffle(init.getInstanceFileContents());
 
@@ -84,6 +144,53 @@ public class CobaltDirectory {
             instances.add(newInstance);
         }
 
+        // keep running and retest each instance on its own schedule
+        if (init.isDaemon()) {
+            new Daemon(instances, init, services).run();
+            return;
+        }
+
+        // hand the instances out to workers if this is a coordinator
+        int testsRun;
+        if (init.getCoordinatorPort() >= 0) {
+            testsRun = new Coordinator(instances, init, args).run();
+        } else {
+            testsRun = testInstances(instances, init, services);
+        }
+        // with incremental runs, everything can be carried forward and still need writing
+        if (testsRun == 0 && instances.stream().allMatch(instance -> instance.getTestResults().isEmpty())) {
+            logger.warn("No tests to run, exiting...");
+            responseCache.save();
+            timeoutPolicy.save();
+            testHistory.save();
+            System.exit(0);
+        }
+
+        writeResults(instances, services);
+
+        // display how long the test took
+        long endTime = System.nanoTime();
+        long duration = endTime - startTime;
+        long minutesTaken = TimeUnit.MINUTES.convert(duration, TimeUnit.NANOSECONDS);
+        logger.info("Completed run in {} minutes.", minutesTaken);
+        // the server keeps the JVM running, so the results stay up
+        if (resultsServer != null) {
+            logger.info("Still serving results, stop the process to exit");
+            return;
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Check each instance's API and run its tests.
+     *
+     * @param instances The instances.
+     * @param init      The init, for the settings.
+     * @param services  The services to test.
+     * @return How many tests were run.
+     */
+    static int testInstances(List<Instance> instances, Init init, Services services) {
+        long runStart = System.currentTimeMillis();
         // create the tests to make sure each API works
         List<ApiCheck> apiChecks = new ArrayList<>();
         for (Instance instance : instances) {
@@ -92,79 +199,78 @@ public class CobaltDirectory {
         }
 
         // create the test builder, which performs the tests
-        TestBuilder testBuilder = new TestBuilder();
-        // check the APIs to see if they work
-        testBuilder.runApiInfoTests(apiChecks);
+        // the budget counts from here, everything after the tests is quick
+        RunBudget budget = new RunBudget(TimeUnit.SECONDS.toMillis(init.getRunBudget()), TimeUnit.SECONDS.toMillis(init.getTestDeadline()));
+        TestBuilder testBuilder = new TestBuilder(init.getExecutionMode(), init.getConcurrency(), init.getRetries(), init.getPerHost(), services, budget);
+        // check the APIs, and start testing each one as soon as its check is done
+        int expectedTests = instances.size() * (services.getTests().size() + 1);
+        // instances that share a backend or frontend are only tested once
+        Backends backends = new Backends();
+        currentRun = testBuilder;
+        int testsRun;
+        try {
+            testsRun = testBuilder.run(apiChecks, instance -> createTests(instance, init, services, backends), expectedTests);
+        } finally {
+            currentRun = null;
+        }
+        backends.fanOut();
 
-        // create tests for all APIs that are working
-        List<Test> testsToRun = new ArrayList<>();
         int online = 0;
         int offline = 0;
+        // workers leave the history to the coordinator
+        if (init.getWorker() == null) {
+            recordRun(instances, runStart);
+        }
         for (Instance instance : instances) {
-            // only create tests if the API is working
             if (instance.isApiWorking()) {
                 online++;
-                String token = null;
-                String api = instance.getApi();
-                logger.info("{} is ONLINE", instance.getApi());
-                boolean apiKey = init.getApiKeys().has(api);
-                // if turnstile is enabled, and we have no API key
-                // skip tests since we can't do anything
-                boolean skipTests = instance.hasTurnstile() && !apiKey;
-                if (skipTests) {
-                    logger.warn("Skipping ALL tests for {} since it has Cloudflare turnstile and we have no API key", api);
-                }
-                // if we have an API key for this instance, use it for tests
-                if (apiKey) {
-                    logger.info("Found API key for {}, will use it for requests", api);
-                    token = init.getApiKeys().getString(api);
-                }
-                // create the tests for each service for this instance
-                for (Map.Entry<String, String> tests : services.getTests().entrySet()) {
-                    String service = tests.getKey();
-                    String url = tests.getValue();
-                    // skip the tests
-                    if (skipTests) {
-                        TestResult skippedTest = new TestResult(service, false, "Uses Cloudflare turnstile, unable to test via API (no API key)");
-                        instance.addResult(skippedTest);
-                    } else {
-                        Test test = new Test(instance, service, url, token);
-                        testsToRun.add(test);
-                    }
-                }
-                // if the frontend is not null, add it to the tests
-                if (instance.getFrontEnd() != null) {
-                    Test frontEndTest = new Test(instance, "Frontend", instance.getProtocol() + "://" + instance.getFrontEnd(), null);
-                    testsToRun.add(frontEndTest);
-                }
             } else {
-                logger.warn("{} is OFFLINE", instance.getApi());
                 offline++;
             }
         }
-
         double onlinePercent = (double) Math.round((double) online / (online + offline) * 100) / 100;
         double offlinePercent = (double) Math.round((double) offline / (online + offline) * 100) / 100;
         logger.info("Online: {} - {}%", online, onlinePercent);
         logger.info("Offline: {} - {}%", offline, offlinePercent);
+        return testsRun;
+    }
 
-        if (testsToRun.isEmpty()) {
-            logger.warn("No tests to run, exiting...");
-            System.exit(0);
+    /**
+     * Stop the run that is testing right now, if there is one. Its unfinished tests are timed out.
+     */
+    static void stopRun() {
+        TestBuilder run = currentRun;
+        if (run != null) {
+            run.stop();
         }
+    }
 
-        // perform the service tests
-        Collections.shuffle(testsToRun);
-        testBuilder.runServiceTests(testsToRun);
+    /**
+     * Add a run's results to the test history and the history store.
+     *
+     * @param instances The instances, after their tests.
+     * @param runStart  When the run started, results from before it were carried forward.
+     */
+    static void recordRun(List<Instance> instances, long runStart) {
+        for (Instance instance : instances) {
+            testHistory.record(instance);
+            historyStore.append(instance, runStart);
+        }
+        historyStore.flush();
+        historyStore.compact();
+    }
 
+    /**
+     * Write results.json, api.json and api_frontends.json for these instances, and save the caches.
+     *
+     * @param instances The instances, after their tests.
+     * @param services  The services that were tested.
+     */
+    static void writeResults(List<Instance> instances, Services services) {
         // set when the tests ran. this will be afterward, as it's more for "as of this time"
         SimpleDateFormat f = new SimpleDateFormat("yyyy-MMM-dd HH:mm:ss");
         f.setTimeZone(TimeZone.getTimeZone("UTC"));
 
-        // check for dupes
-        findDuplicates(instances);
-
-        JSONArray testResults = new JSONArray();
         File testResultsOutput = new File("results.json");
         Map<String, TestCounter> testResultsCounter = new HashMap<>();
         // idk what to call this
@@ -173,43 +279,32 @@ public class CobaltDirectory {
             servicesWithWorkingInstances.put(service, new ArrayList<>());
         }
 
-        for (Instance instance : instances) {
-            JSONObject instanceResults = new JSONObject();
-            instanceResults.put("api", instance.getApi());
-            instanceResults.put("frontend", instance.getFrontEnd());
-            instanceResults.put("protocol", instance.getProtocol());
-            instanceResults.put("online", instance.isApiWorking());
-            instanceResults.put("version", instance.getVersion());
-            instanceResults.put("codebase", instance.getRemote());
-            instanceResults.put("startTime", instance.getStartTime());
-
-            JSONObject tests = new JSONObject();
-
-            for (TestResult r : instance.getTestResults()) {
-                JSONObject serviceResults = new JSONObject();
-                String service = r.service();
-                boolean status = r.status();
-
-                serviceResults.put("status", status);
-                serviceResults.put("message", StringUtil.makeLogPretty(r.message()));
-                serviceResults.put("friendly", Services.getIdToFriendly().get(r.service()));
-
-                TestCounter c = testResultsCounter.computeIfAbsent(r.service(), s -> new TestCounter());
-                c.total++;
-
-                if (status) {
-                    if (!r.service().equals("Frontend")) {
-                        servicesWithWorkingInstances.computeIfAbsent(service, k -> new ArrayList<>()).add(instance);
-                    }
-                    c.success++;
-                }
+        Map<String, Uptime> uptime = historyStore.uptime(System.currentTimeMillis());
+        // what the web pages show, worked out once here instead of on every request
+        Snapshot.Builder snapshot = resultsServer != null ? new Snapshot.Builder() : null;
+        PageIndex pageIndex = new PageIndex(new File("index.json"), new File("instances"), snapshot);
 
-                tests.put(service, serviceResults);
+        // each instance is written as soon as it is built, so the whole file is never in memory
+        logger.info("Saving results to {}", testResultsOutput.getAbsolutePath());
+        try (AtomicOutput output = new AtomicOutput(testResultsOutput, true)) {
+            output.beginArray();
+            for (Instance instance : instances) {
+                JSONObject instanceResults = instanceResults(instance, testResultsCounter, servicesWithWorkingInstances);
+                Uptime instanceUptime = uptime.get(instance.getApi());
+                if (instanceUptime != null) {
+                    instanceResults.put("uptime", instanceUptime.toJSON());
+                }
+                output.arrayValue(instanceResults);
+                pageIndex.add(instanceResults);
             }
-
-            instanceResults.put("tests", tests);
-            testResults.put(instanceResults);
+            output.endArray();
+            output.commit();
+        } catch (IOException exception) {
+            // don't publish api.json from half the results
+            logger.error("Unable to write results to {}", testResultsOutput.getAbsolutePath(), exception);
+            return;
         }
+        pageIndex.write();
 
         // store which service support what instance
         JSONObject serviceApi = new JSONObject();
@@ -238,49 +333,170 @@ public class CobaltDirectory {
 
         File serviceApiFile = new File("api.json");
         File serviceFrontendsApiFile = new File("api_frontends.json");
-        FileUtil.writeFile(serviceApi.toString(), serviceApiFile);
-        FileUtil.writeFile(serviceFrontendsApi.toString(), serviceFrontendsApiFile);
+        FileUtil.writeFile(serviceApi, serviceApiFile, true);
+        FileUtil.writeFile(serviceFrontendsApi, serviceFrontendsApiFile, true);
+        if (snapshot != null) {
+            // read back what was just written, along with its .gz, instead of holding a copy while writing
+            try {
+                File gzipped = new File(testResultsOutput.getAbsoluteFile().getParentFile(), testResultsOutput.getName() + ".gz");
+                snapshot.put("/results.json", Files.readAllBytes(testResultsOutput.toPath()), Files.readAllBytes(gzipped.toPath()));
+                snapshot.put("/api.json", serviceApi.toString());
+                snapshot.put("/api_frontends.json", serviceFrontendsApi.toString());
+                resultsServer.publish(snapshot.build());
+            } catch (IOException exception) {
+                logger.error("Unable to read back {}, the server keeps the last results", testResultsOutput.getAbsolutePath(), exception);
+            }
+        }
 
         // get the longest running instance for fun
-        Instance oldestInstance = instances.stream()
+        Optional<Instance> oldestInstance = instances.stream()
                 .filter(Instance::isApiWorking).filter(instance -> instance.getStartTime() != 0)
-                .min(Comparator.comparingLong(Instance::getStartTime))
-                .orElseThrow(() -> new IllegalStateException("No instance with a valid startTime"));
+                .min(Comparator.comparingLong(Instance::getStartTime));
 
         testResultsCounter.forEach((service, c) -> logger.info("{}: {}/{}", Services.getIdToFriendly().get(service), c.success, c.total));
 
-        logger.info("Oldest instance is: {}, starTime={}", oldestInstance.getApi(), oldestInstance.getStartTime());
-
-        logger.info("Saving results to {}", testResultsOutput.getAbsolutePath());
-        FileUtil.writeFile(testResults.toString(), testResultsOutput);
+        oldestInstance.ifPresent(oldest -> logger.info("Oldest instance is: {}, starTime={}", oldest.getApi(), oldest.getStartTime()));
 
-        // display how long the test took
-        long endTime = System.nanoTime();
-        long duration = endTime - startTime;
-        long minutesTaken = TimeUnit.MINUTES.convert(duration, TimeUnit.NANOSECONDS);
-        logger.info("Completed run in {} minutes.", minutesTaken);
-        System.exit(0);
+        responseCache.save();
+        timeoutPolicy.save();
+        testHistory.save();
     }
 
-    public static void findDuplicates(List<Instance> instances) {
-        Map<Long, List<Instance>> map = new HashMap<>();
+    /**
+     * Build the results.json entry for an instance, and count its results.
+     *
+     * @param instance                     The instance.
+     * @param testResultsCounter           The pass counts for each service.
+     * @param servicesWithWorkingInstances The working instances for each service.
+     * @return The entry.
+     */
+    private static JSONObject instanceResults(Instance instance, Map<String, TestCounter> testResultsCounter, Map<String, List<Instance>> servicesWithWorkingInstances) {
+        JSONObject instanceResults = new JSONObject();
+        instanceResults.put("api", instance.getApi());
+        instanceResults.put("frontend", instance.getFrontEnd());
+        instanceResults.put("protocol", instance.getProtocol());
+        instanceResults.put("online", instance.isApiWorking());
+        instanceResults.put("version", instance.getVersion());
+        instanceResults.put("codebase", instance.getRemote());
+        instanceResults.put("startTime", instance.getStartTime());
+        if (instance.getAliasOf() != null) {
+            instanceResults.put("aliasOf", instance.getAliasOf());
+        }
+        if (instance.getFrontEndAliasOf() != null) {
+            instanceResults.put("frontendAliasOf", instance.getFrontEndAliasOf());
+        }
+        if (instance.getNetworkTiming() != null) {
+            instanceResults.put("network", instance.getNetworkTiming().toJSON());
+        }
 
-        for (Instance instance : instances) {
-            if (instance.getStartTime() == 0) {
-                continue;
+        JSONObject tests = new JSONObject();
+
+        for (TestResult r : instance.getTestResults()) {
+            JSONObject serviceResults = new JSONObject();
+            String service = r.service();
+            boolean status = r.status();
+
+            serviceResults.put("status", status);
+            serviceResults.put("message", StringUtil.makeLogPretty(r.message()));
+            serviceResults.put("friendly", Services.getIdToFriendly().get(r.service()));
+            if (r.timing() != null) {
+                serviceResults.put("timing", r.timing().toJSON());
             }
-            map.computeIfAbsent(instance.getStartTime(), k -> new ArrayList<>()).add(instance);
-        }
+            if (r.tunnel() != null) {
+                serviceResults.put("tunnel", r.tunnel().toJSON());
+            }
+            serviceResults.put("testedAt", r.testedAt());
+            serviceResults.put("age", TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - r.testedAt()));
+
+            TestCounter c = testResultsCounter.computeIfAbsent(r.service(), s -> new TestCounter());
+            c.total++;
 
-        for (Map.Entry<Long, List<Instance>> entry : map.entrySet()) {
-            List<Instance> duplicates = entry.getValue();
-            if (duplicates.size() > 1) {
-                logger.warn("!!! Duplicate start time {} found !!!", entry.getKey());
-                for (Instance inst : duplicates) {
-                    logger.warn("- {}", inst.getApi());
+            if (status) {
+                if (!r.service().equals("Frontend")) {
+                    servicesWithWorkingInstances.computeIfAbsent(service, k -> new ArrayList<>()).add(instance);
                 }
+                c.success++;
             }
+
+            tests.put(service, serviceResults);
+        }
+
+        instanceResults.put("tests", tests);
+        return instanceResults;
+    }
+
+    /**
+     * Create the tests for an instance, once its API check is done.
+     *
+     * @param instance The instance.
+     * @param init     The init, for the API keys.
+     * @param services The services to test.
+     * @param backends The backends seen so far, to skip duplicates.
+     * @return The tests, empty if the instance is offline.
+     */
+    private static List<Test> createTests(Instance instance, Init init, Services services, Backends backends) {
+        List<Test> testsToRun = new ArrayList<>();
+        // only create tests if the API is working
+        if (!instance.isApiWorking()) {
+            logger.warn("{} is OFFLINE", instance.getApi());
+            return testsToRun;
+        }
+        String token = null;
+        String api = instance.getApi();
+        logger.info("{} is ONLINE", instance.getApi());
+        boolean apiKey = init.getApiKeys().has(api);
+        // if turnstile is enabled, and we have no API key
+        // skip tests since we can't do anything
+        boolean skipTests = instance.hasTurnstile() && !apiKey;
+        if (skipTests) {
+            logger.warn("Skipping ALL tests for {} since it has Cloudflare turnstile and we have no API key", api);
+        }
+        // if we have an API key for this instance, use it for tests
+        if (apiKey) {
+            logger.info("Found API key for {}, will use it for requests", api);
+            token = init.getApiKeys().getString(api);
+        }
+        // another domain for a backend we already test gets its results at the end
+        boolean alias = !skipTests && !backends.claimBackend(instance);
+        // create the tests for each service for this instance
+        int carried = 0;
+        for (Map.Entry<String, String> tests : services.getTests().entrySet()) {
+            String service = tests.getKey();
+            String url = tests.getValue();
+            if (alias) {
+                continue;
+            }
+            TestResult previous = init.isIncremental() ? testHistory.carryForward(instance, service) : null;
+            // skip the tests
+            if (skipTests) {
+                TestResult skippedTest = new TestResult(service, false, "Uses Cloudflare turnstile, unable to test via API (no API key)");
+                instance.addResult(skippedTest);
+            } else if (previous != null) {
+                // stable and not due yet, keep the last result
+                instance.addResult(previous);
+                carried++;
+            } else {
+                Test test = new Test(instance, service, url, token);
+                testsToRun.add(test);
+            }
+        }
+        // if the frontend is not null, add it to the tests
+        if (instance.getFrontEnd() != null && backends.claimFrontend(instance)) {
+            TestResult previous = init.isIncremental() ? testHistory.carryForward(instance, "Frontend") : null;
+            if (previous != null) {
+                instance.addResult(previous);
+                carried++;
+            } else {
+                Test frontEndTest = new Test(instance, "Frontend", instance.getProtocol() + "://" + instance.getFrontEnd(), null);
+                testsToRun.add(frontEndTest);
+            }
+        }
+        if (carried != 0) {
+            logger.info("Carrying forward {} stable results for {}", carried, api);
         }
+        // spread this instance's services out, so the same services aren't always tested first
+        Collections.shuffle(testsToRun);
+        return testsToRun;
     }
 
     public static String getUserAgent() {
@@ -291,11 +507,19 @@ public class CobaltDirectory {
         return MESSAGE_FACTORY;
     }
 
-    public static boolean useProxy() {
-        return proxyInfo != null;
+    public static Transport getTransport() {
+        return transport;
+    }
+
+    public static ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    public static TimeoutPolicy getTimeoutPolicy() {
+        return timeoutPolicy;
     }
 
-    public static ProxyInfo getProxyInfo() {
-        return proxyInfo;
+    public static ProxyPool getProxyPool() {
+        return proxyPool;
     }
 }
\ No newline at end of file
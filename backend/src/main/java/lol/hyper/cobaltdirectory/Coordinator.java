@@ -0,0 +1,314 @@
+package lol.hyper.cobaltdirectory;
+
+import lol.hyper.cobaltdirectory.instance.Instance;
+import lol.hyper.cobaltdirectory.tests.TestResult;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits the instances into shards and hands them to workers over a socket, instead of
+ * testing everything in this JVM. Workers can be other processes on this machine, which
+ * the coordinator starts itself, or other hosts that connect on their own. Each worker
+ * takes a shard at a time, so faster workers take more of them. If a worker dies or goes
+ * quiet, its shard goes back in the queue for another worker.
+ * <p>
+ * It only listens on loopback unless bind= says otherwise. Workers from other hosts have to
+ * send the shared secret from secret= in their hello, and are turned away if there is none.
+ */
+public class Coordinator {
+
+    // enough shards that they even out between workers
+    private static final int SHARDS_PER_WORKER = 4;
+    private static final int MAX_SHARD_SIZE = 25;
+    // these only make sense for the coordinator, everything else is passed to local workers
+    private static final Set<String> COORDINATOR_ARGS = Set.of("coordinator", "workers", "daemon", "worker", "bind");
+
+    private final Logger logger = LogManager.getLogger(this);
+    private final List<Instance> instances;
+    private final Init init;
+    private final String[] args;
+    private final LinkedBlockingDeque<List<Instance>> queue = new LinkedBlockingDeque<>();
+    private final AtomicInteger testsRun = new AtomicInteger();
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final List<Process> processes = new ArrayList<>();
+    private final ExecutorService handlers = Executors.newCachedThreadPool();
+    private final int readTimeout;
+    private CountDownLatch remaining;
+
+    public Coordinator(List<Instance> instances, Init init, String[] args) {
+        this.instances = instances;
+        this.init = init;
+        this.args = args;
+        // a worker sends a result at least once per test deadline, unless something is wrong
+        this.readTimeout = (int) Math.max(TimeUnit.MINUTES.toMillis(1), TimeUnit.SECONDS.toMillis(init.getTestDeadline() * 2));
+    }
+
+    /**
+     * Hand out every shard and wait for them to come back, or for the run budget to run out.
+     *
+     * @return How many results came back.
+     */
+    public int run() {
+        long runStart = System.currentTimeMillis();
+        int workers = Math.max(1, init.getWorkers());
+        int shardSize = Math.clamp((instances.size() + workers * SHARDS_PER_WORKER - 1) / (workers * SHARDS_PER_WORKER), 1, MAX_SHARD_SIZE);
+        for (int i = 0; i < instances.size(); i += shardSize) {
+            queue.add(new ArrayList<>(instances.subList(i, Math.min(instances.size(), i + shardSize))));
+        }
+        remaining = new CountDownLatch(queue.size());
+
+        try (ServerSocket server = new ServerSocket(init.getCoordinatorPort(), 50, bindAddress())) {
+            logger.info("Coordinator listening on {}:{}, {} shards of up to {} instances", server.getInetAddress().getHostAddress(), server.getLocalPort(), queue.size(), shardSize);
+            if (!server.getInetAddress().isLoopbackAddress() && init.getSecret() == null) {
+                logger.warn("Listening on {} with no secret, workers from other hosts will be turned away", server.getInetAddress().getHostAddress());
+            }
+            handlers.execute(() -> accept(server));
+            spawn(init.getWorkers(), server);
+            long wait = TimeUnit.SECONDS.toMillis(init.getRunBudget() + init.getTestDeadline());
+            if (!remaining.await(wait, TimeUnit.MILLISECONDS)) {
+                logger.warn("Run budget is over, {} shards were never finished", remaining.getCount());
+            }
+        } catch (IOException exception) {
+            logger.error("Unable to listen on port {}", init.getCoordinatorPort(), exception);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stop();
+        }
+
+        CobaltDirectory.recordRun(instances, runStart);
+        return testsRun.get();
+    }
+
+    /**
+     * Accept workers until the server socket is closed.
+     *
+     * @param server The server socket.
+     */
+    private void accept(ServerSocket server) {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                connections.add(socket);
+                handlers.execute(() -> serve(socket));
+            } catch (IOException exception) {
+                if (!server.isClosed()) {
+                    logger.warn("Unable to accept worker", exception);
+                }
+            }
+        }
+    }
+
+    /**
+     * Feed shards to one worker until there are none left.
+     *
+     * @param socket The worker's connection.
+     */
+    private void serve(Socket socket) {
+        String worker = socket.getRemoteSocketAddress().toString();
+        try (socket) {
+            socket.setSoTimeout(readTimeout);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            ClusterProtocol.Channel channel = new ClusterProtocol.Channel(socket.getOutputStream());
+            String line = reader.readLine();
+            JSONObject hello = line == null ? null : new JSONObject(line);
+            if (hello == null || !hello.optString("type").equals("hello")) {
+                logger.warn("{} is not a worker, closing", worker);
+                return;
+            }
+            if (!allowed(socket.getInetAddress(), hello.optString("secret", null))) {
+                logger.warn("Worker {} did not send the right secret, closing", worker);
+                return;
+            }
+            logger.info("Worker {} connected", worker);
+            while (true) {
+                // a dead worker's shard can still come back, so wait until every shard is done
+                List<Instance> shard = null;
+                while (shard == null && remaining.getCount() > 0) {
+                    shard = queue.pollFirst(1, TimeUnit.SECONDS);
+                }
+                if (shard == null) {
+                    channel.send(ClusterProtocol.message("exit"));
+                    return;
+                }
+                try {
+                    runShard(shard, reader, channel);
+                } catch (IOException | JSONException exception) {
+                    logger.warn("Worker {} failed, giving its shard of {} instances to another worker", worker, shard.size(), exception);
+                    queue.addFirst(shard);
+                    return;
+                }
+            }
+        } catch (IOException | JSONException exception) {
+            logger.warn("Lost worker {}", worker, exception);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    /**
+     * Send a shard to a worker and collect what comes back. Nothing is applied to the
+     * instances until the worker finishes, so a shard that fails halfway can be tested again.
+     *
+     * @param shard   The instances.
+     * @param reader  The worker's input.
+     * @param channel The worker's output.
+     * @throws IOException If the worker dies or goes quiet.
+     */
+    private void runShard(List<Instance> shard, BufferedReader reader, ClusterProtocol.Channel channel) throws IOException {
+        JSONArray list = new JSONArray();
+        for (Instance instance : shard) {
+            list.put(ClusterProtocol.instanceToJSON(instance));
+        }
+        JSONObject message = ClusterProtocol.message("shard");
+        message.put("instances", list);
+        channel.send(message);
+
+        Map<String, List<TestResult>> results = new HashMap<>();
+        Map<String, JSONObject> states = new HashMap<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            JSONObject reply = new JSONObject(line);
+            switch (reply.getString("type")) {
+                case "result" -> results.computeIfAbsent(reply.getString("api"), api -> new ArrayList<>()).add(ClusterProtocol.resultFromJSON(reply.getJSONObject("result")));
+                case "instance" -> {
+                    JSONObject state = reply.getJSONObject("instance");
+                    states.put(state.getString("api"), state);
+                }
+                case "done" -> {
+                    for (Instance instance : shard) {
+                        JSONObject state = states.get(instance.getApi());
+                        if (state == null) {
+                            instance.setOffline();
+                            continue;
+                        }
+                        ClusterProtocol.applyState(instance, state);
+                        for (TestResult result : results.getOrDefault(instance.getApi(), List.of())) {
+                            instance.addResult(result);
+                            testsRun.incrementAndGet();
+                        }
+                    }
+                    remaining.countDown();
+                    return;
+                }
+                default -> logger.warn("Unknown message from worker: {}", line);
+            }
+        }
+        throw new EOFException("Worker closed the connection");
+    }
+
+    /**
+     * Where to listen. Loopback unless bind= is set, so only this machine can connect.
+     *
+     * @return The address.
+     * @throws IOException If bind= can't be resolved.
+     */
+    private InetAddress bindAddress() throws IOException {
+        return init.getBind() == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(init.getBind());
+    }
+
+    /**
+     * Check if a worker can take shards. With a secret set every worker has to send it,
+     * without one only workers on this machine are let in.
+     *
+     * @param address Where the worker connected from.
+     * @param secret  The secret in its hello, or null.
+     * @return true if it is allowed.
+     */
+    private boolean allowed(InetAddress address, String secret) {
+        String expected = init.getSecret();
+        if (expected == null) {
+            return address.isLoopbackAddress();
+        }
+        return secret != null && MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8), secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Start local workers.
+     *
+     * @param count  How many.
+     * @param server The server socket they connect to.
+     */
+    private void spawn(int count, ServerSocket server) {
+        if (count <= 0) {
+            logger.info("Waiting for workers to connect");
+            return;
+        }
+        String java = ProcessHandle.current().info().command().orElse("java");
+        List<String> command = new ArrayList<>(List.of(java, "-cp", System.getProperty("java.class.path"), CobaltDirectory.class.getName()));
+        for (String arg : args) {
+            if (!COORDINATOR_ARGS.contains(arg.split("=", 2)[0].toLowerCase(Locale.ROOT))) {
+                command.add(arg);
+            }
+        }
+        InetAddress address = server.getInetAddress().isAnyLocalAddress() ? InetAddress.getLoopbackAddress() : server.getInetAddress();
+        command.add("worker=" + address.getHostAddress() + ":" + server.getLocalPort());
+        for (int i = 0; i < count; i++) {
+            try {
+                processes.add(new ProcessBuilder(command).inheritIO().start());
+            } catch (IOException exception) {
+                logger.error("Unable to start worker {}", i, exception);
+            }
+        }
+        logger.info("Started {} local workers", processes.size());
+    }
+
+    /**
+     * Close every connection and stop the local workers.
+     */
+    private void stop() {
+        // let the workers that are done hear that there is nothing left
+        handlers.shutdown();
+        try {
+            handlers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        for (Socket socket : connections) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+        handlers.shutdownNow();
+        for (Process process : processes) {
+            try {
+                // they were told to exit, give them a moment before killing them
+                if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException exception) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
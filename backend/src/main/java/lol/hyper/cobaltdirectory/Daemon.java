@@ -0,0 +1,101 @@
+package lol.hyper.cobaltdirectory;
+
+import lol.hyper.cobaltdirectory.instance.Instance;
+import lol.hyper.cobaltdirectory.services.Services;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the JVM running and retests instances on their own schedule, instead of testing
+ * everything once and exiting. The transport, its connection pools, the caches and the
+ * services stay loaded between rounds. Each round tests the instances that are due, then
+ * the output files are rewritten with the latest results for every instance.
+ */
+public class Daemon {
+
+    // offline instances are checked less often, up to this many intervals apart
+    private static final int MAX_BACKOFF = 4;
+
+    private final Logger logger = LogManager.getLogger(this);
+    private final List<Instance> instances;
+    private final Init init;
+    private final Services services;
+    private final long interval;
+    // the last finished results for each instance, by API
+    private final Map<String, Instance> latest = new LinkedHashMap<>();
+    private final Map<String, Long> nextRun = new LinkedHashMap<>();
+    private final Map<String, Integer> offlineRounds = new LinkedHashMap<>();
+
+    public Daemon(List<Instance> instances, Init init, Services services) {
+        this.instances = instances;
+        this.init = init;
+        this.services = services;
+        this.interval = TimeUnit.MINUTES.toMillis(init.getInterval());
+        // everything is due right away, so the first round is a full run
+        for (Instance instance : instances) {
+            nextRun.put(instance.getApi(), 0L);
+        }
+    }
+
+    /**
+     * Run rounds forever.
+     */
+    public void run() {
+        logger.info("Running as a daemon, testing each instance every {} minutes", init.getInterval());
+        while (!Thread.currentThread().isInterrupted()) {
+            long now = System.currentTimeMillis();
+            List<Instance> due = new ArrayList<>();
+            long nextDue = Long.MAX_VALUE;
+            for (Instance instance : instances) {
+                long next = nextRun.get(instance.getApi());
+                if (next <= now) {
+                    // a fresh copy, so the results from the last round stay in place until this one finishes
+                    due.add(new Instance(instance.getFrontEnd(), instance.getApi(), instance.getProtocol()));
+                } else {
+                    nextDue = Math.min(nextDue, next);
+                }
+            }
+            if (due.isEmpty()) {
+                try {
+                    Thread.sleep(Math.max(1000, nextDue - now));
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                }
+                continue;
+            }
+
+            long start = System.nanoTime();
+            logger.info("Starting round for {} instances", due.size());
+            CobaltDirectory.testInstances(due, init, services);
+            for (Instance instance : due) {
+                latest.put(instance.getApi(), instance);
+                schedule(instance);
+            }
+            CobaltDirectory.writeResults(new ArrayList<>(latest.values()), services);
+            logger.info("Finished round for {} instances in {} seconds", due.size(), TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * Work out when an instance should be tested next. Online instances come back after the
+     * interval, offline ones back off since they are usually gone for a while. Some jitter
+     * keeps instances from all coming due in the same round again.
+     *
+     * @param instance The instance that was just tested.
+     */
+    private void schedule(Instance instance) {
+        String api = instance.getApi();
+        int rounds = instance.isApiWorking() ? 0 : offlineRounds.getOrDefault(api, 0) + 1;
+        offlineRounds.put(api, rounds);
+        long wait = interval * Math.min(MAX_BACKOFF, 1L << Math.min(rounds, 2));
+        long jitter = (long) (wait * 0.1 * ThreadLocalRandom.current().nextDouble(-1, 1));
+        nextRun.put(api, System.currentTimeMillis() + wait + jitter);
+    }
+}
@@ -1,6 +1,9 @@
 package lol.hyper.cobaltdirectory;
 
+import lol.hyper.cobaltdirectory.requests.ProxyPool;
+import lol.hyper.cobaltdirectory.tests.ExecutionMode;
 import lol.hyper.cobaltdirectory.utils.FileUtil;
+import lol.hyper.cobaltdirectory.utils.ProxyInfo;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.eclipse.jgit.api.Git;
@@ -8,6 +11,8 @@ import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
@@ -15,7 +20,9 @@ import java.io.IOException;
 import java.net.Authenticator;
 import java.net.PasswordAuthentication;
 import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class Init {
 
@@ -23,10 +30,27 @@ public class Init {
     private String userAgent;
     private JSONObject tests;
     private JSONObject apiKeys;
+    private JSONObject limits;
     private List<String> instanceFileContents;
-    private boolean proxy;
-    private String proxyHost;
-    private int proxyPort;
+    private final List<ProxyInfo> proxies = new ArrayList<>();
+    private ProxyPool.Selection proxySelection = ProxyPool.Selection.LEAST_LOADED;
+    private String proxyHealthCheck = "https://cobalt.directory";
+    private ExecutionMode executionMode = ExecutionMode.POOL;
+    private int concurrency = -1;
+    private int retries = -1;
+    private int perHost = -1;
+    // in seconds, a run has to fit in its cron slot
+    private long runBudget = TimeUnit.MINUTES.toSeconds(50);
+    private long testDeadline = TimeUnit.MINUTES.toSeconds(5);
+    private boolean daemon = false;
+    private long interval = 30;
+    private boolean incremental = false;
+    private int coordinatorPort = -1;
+    private int workers = 0;
+    private String worker;
+    private String bind;
+    private String secret;
+    private int servePort = -1;
 
     public void start(String[] args) {
         // load the git information
@@ -60,7 +84,103 @@ public class Init {
             if (key.equalsIgnoreCase("instances")) {
                 instanceFile = value;
             }
+            if (key.equalsIgnoreCase("mode")) {
+                ExecutionMode mode = ExecutionMode.fromString(value);
+                if (mode == null) {
+                    logger.warn("Unknown mode {}, using {}", value, executionMode);
+                } else {
+                    executionMode = mode;
+                }
+            }
+            if (key.equalsIgnoreCase("concurrency")) {
+                try {
+                    concurrency = Integer.parseInt(value);
+                } catch (NumberFormatException exception) {
+                    logger.warn("Invalid concurrency {}, using the default", value);
+                }
+            }
+            if (key.equalsIgnoreCase("retries")) {
+                try {
+                    retries = Integer.parseInt(value);
+                } catch (NumberFormatException exception) {
+                    logger.warn("Invalid retries {}, using the default", value);
+                }
+            }
+            if (key.equalsIgnoreCase("perhost")) {
+                try {
+                    perHost = Integer.parseInt(value);
+                } catch (NumberFormatException exception) {
+                    logger.warn("Invalid perhost {}, using the default", value);
+                }
+            }
+            if (key.equalsIgnoreCase("budget")) {
+                try {
+                    runBudget = Long.parseLong(value);
+                } catch (NumberFormatException exception) {
+                    logger.warn("Invalid budget {}, using the default", value);
+                }
+            }
+            if (key.equalsIgnoreCase("daemon")) {
+                daemon = Boolean.parseBoolean(value);
+            }
+            if (key.equalsIgnoreCase("coordinator")) {
+                try {
+                    coordinatorPort = Integer.parseInt(value);
+                } catch (NumberFormatException exception) {
+                    logger.warn("Invalid coordinator port {}, testing in this process", value);
+                }
+            }
+            if (key.equalsIgnoreCase("workers")) {
+                try {
+                    workers = Math.max(0, Integer.parseInt(value));
+                } catch (NumberFormatException exception) {
+                    logger.warn("Invalid workers {}, waiting for workers to connect", value);
+                }
+            }
+            if (key.equalsIgnoreCase("worker")) {
+                if (value.lastIndexOf(':') > 0) {
+                    worker = value;
+                } else {
+                    logger.warn("Invalid coordinator address {}, expected host:port", value);
+                }
+            }
+            if (key.equalsIgnoreCase("bind")) {
+                bind = value;
+            }
+            if (key.equalsIgnoreCase("secret")) {
+                if (value.isBlank()) {
+                    logger.warn("Empty secret, only workers on this machine can connect");
+                } else {
+                    secret = value;
+                }
+            }
+            if (key.equalsIgnoreCase("serve")) {
+                try {
+                    servePort = Integer.parseInt(value);
+                } catch (NumberFormatException exception) {
+                    logger.warn("Invalid serve port {}, not serving results", value);
+                }
+            }
+            if (key.equalsIgnoreCase("incremental")) {
+                incremental = Boolean.parseBoolean(value);
+            }
+            if (key.equalsIgnoreCase("interval")) {
+                try {
+                    interval = Math.max(1, Long.parseLong(value));
+                } catch (NumberFormatException exception) {
+                    logger.warn("Invalid interval {}, using the default", value);
+                }
+            }
+            if (key.equalsIgnoreCase("deadline")) {
+                try {
+                    testDeadline = Long.parseLong(value);
+                } catch (NumberFormatException exception) {
+                    logger.warn("Invalid deadline {}, using the default", value);
+                }
+            }
         }
+        logger.info("Running tests in {} mode", executionMode);
+        logger.info("Run budget: {}s, test deadline: {}s", runBudget, testDeadline);
 
         // load files
         setupFiles(instanceFile);
@@ -74,6 +194,10 @@ public class Init {
         return apiKeys;
     }
 
+    public JSONObject getLimits() {
+        return limits;
+    }
+
     public JSONObject getTests() {
         return tests;
     }
@@ -111,6 +235,7 @@ public class Init {
         File testUrlsFile = new File("tests.json");
         File apiKeysFile = new File("apikeys.json");
         File proxyFile = new File("proxy.json");
+        File limitsFile = new File("limits.json");
         logger.info("Using instances file: {}", instancesFile.getAbsolutePath());
         logger.info("Using tests file: {}", testUrlsFile.getAbsolutePath());
         logger.info("Using api keys file: {}", apiKeysFile.getAbsolutePath());
@@ -140,16 +265,20 @@ public class Init {
         }
         apiKeys = new JSONObject(apiKeyContents);
 
+        // limits.json is optional, {"YouTube": 4, "default": 16}
+        String limitsContents = limitsFile.exists() ? FileUtil.readFile(limitsFile) : null;
+        if (limitsContents == null) {
+            limits = new JSONObject();
+        } else {
+            logger.info("Using limits file: {}", limitsFile.getAbsolutePath());
+            limits = new JSONObject(limitsContents);
+        }
+
         String proxyFileContents = FileUtil.readFile(proxyFile);
         if (proxyFileContents == null) {
             logger.warn("proxy.json failed to load! Can't use a proxy.json for requests.");
-            proxy = false;
         } else {
-            JSONObject proxyJson = new JSONObject(proxyFileContents);
-            proxyHost = proxyJson.getString("host");
-            proxyPort = Integer.parseInt(proxyJson.getString("port"));
-            logger.info("Using proxy.json {}:{} for requests", proxyHost, proxyPort);
-            proxy = true;
+            loadProxies(new JSONObject(proxyFileContents));
         }
 
         // folders for web
@@ -169,15 +298,173 @@ public class Init {
         }
     }
 
-    public boolean useProxy() {
-        return proxy;
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * How many tests can be in flight at once.
+     *
+     * @return The concurrency, or -1 if the mode's default should be used.
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * How many retries a run is allowed in total.
+     *
+     * @return The retry budget, or -1 if the default should be used.
+     */
+    public int getRetries() {
+        return retries;
+    }
+
+    /**
+     * How many tests can be in flight at once for hosts on the same IP.
+     *
+     * @return The cap, or -1 if the default should be used.
+     */
+    public int getPerHost() {
+        return perHost;
+    }
+
+    /**
+     * How long the whole run can take.
+     *
+     * @return The budget in seconds.
+     */
+    public long getRunBudget() {
+        return runBudget;
+    }
+
+    /**
+     * How long one test can take, retries included.
+     *
+     * @return The deadline in seconds.
+     */
+    public long getTestDeadline() {
+        return testDeadline;
+    }
+
+    public boolean isDaemon() {
+        return daemon;
+    }
+
+    /**
+     * How often each instance is retested in daemon mode.
+     *
+     * @return The interval in minutes.
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * If stable results from earlier runs are carried forward instead of tested every run.
+     *
+     * @return True if runs are incremental.
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * The port to hand out work to workers on.
+     *
+     * @return The port, 0 for any free port, or -1 to test in this process.
+     */
+    public int getCoordinatorPort() {
+        return coordinatorPort;
+    }
+
+    /**
+     * How many local workers the coordinator starts. Others can still connect.
+     *
+     * @return The number of local workers.
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * The coordinator to take work from, if this process is a worker.
+     *
+     * @return host:port, or null if this is not a worker.
+     */
+    public String getWorker() {
+        return worker;
+    }
+
+    /**
+     * The address the coordinator and the results server listen on.
+     *
+     * @return The address, or null for loopback.
+     */
+    public String getBind() {
+        return bind;
+    }
+
+    /**
+     * The secret workers send to the coordinator.
+     *
+     * @return The secret, or null if there is none.
+     */
+    public String getSecret() {
+        return secret;
+    }
+
+    /**
+     * The port to serve results on from memory.
+     *
+     * @return The port, or -1 to not serve them.
+     */
+    public int getServePort() {
+        return servePort;
+    }
+
+    /**
+     * Load the proxies from proxy.json. It can be a single proxy like {"host": "", "port": ""},
+     * or {"proxies": [...], "selection": "least-loaded" or "sticky", "healthCheck": "url"}.
+     *
+     * @param proxyJson The contents of proxy.json.
+     */
+    private void loadProxies(JSONObject proxyJson) {
+        JSONArray entries = proxyJson.optJSONArray("proxies");
+        if (entries == null) {
+            entries = new JSONArray().put(proxyJson);
+        }
+        for (int i = 0; i < entries.length(); i++) {
+            JSONObject entry = entries.getJSONObject(i);
+            try {
+                // the port used to be a string, allow both
+                ProxyInfo proxy = new ProxyInfo(entry.getString("host"), Integer.parseInt(String.valueOf(entry.get("port"))));
+                proxies.add(proxy);
+                logger.info("Using proxy {}:{} for requests", proxy.host(), proxy.port());
+            } catch (JSONException | NumberFormatException exception) {
+                logger.error("Invalid proxy in proxy.json: {}", entry, exception);
+            }
+        }
+        if (proxyJson.has("selection")) {
+            ProxyPool.Selection selection = ProxyPool.Selection.fromString(proxyJson.getString("selection"));
+            if (selection == null) {
+                logger.warn("Unknown proxy selection {}, using {}", proxyJson.getString("selection"), proxySelection);
+            } else {
+                proxySelection = selection;
+            }
+        }
+        proxyHealthCheck = proxyJson.optString("healthCheck", proxyHealthCheck);
+    }
+
+    public List<ProxyInfo> getProxies() {
+        return proxies;
     }
 
-    public String getProxyHost() {
-        return proxyHost;
+    public ProxyPool.Selection getProxySelection() {
+        return proxySelection;
     }
 
-    public int getProxyPort() {
-        return proxyPort;
+    public String getProxyHealthCheck() {
+        return proxyHealthCheck;
     }
 }
@@ -0,0 +1,144 @@
+package lol.hyper.cobaltdirectory;
+
+import lol.hyper.cobaltdirectory.instance.Instance;
+import lol.hyper.cobaltdirectory.services.Services;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests the instances a coordinator hands out. It connects to the coordinator, tests each
+ * shard it gets like a normal run would, and streams the results back as they finish.
+ */
+public class Worker {
+
+    private static final int CONNECT_ATTEMPTS = 10;
+
+    private final Logger logger = LogManager.getLogger(this);
+    private final String host;
+    private final int port;
+    private final Init init;
+    private final Services services;
+
+    public Worker(String address, Init init, Services services) {
+        int split = address.lastIndexOf(':');
+        this.host = address.substring(0, split);
+        this.port = Integer.parseInt(address.substring(split + 1));
+        this.init = init;
+        this.services = services;
+    }
+
+    /**
+     * Take shards from the coordinator until it says there is no more work, or goes away.
+     */
+    public void run() {
+        try (Socket socket = connect()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            ClusterProtocol.Channel channel = new ClusterProtocol.Channel(socket.getOutputStream());
+            JSONObject hello = ClusterProtocol.message("hello");
+            if (init.getSecret() != null) {
+                hello.put("secret", init.getSecret());
+            }
+            channel.send(hello);
+            logger.info("Connected to coordinator at {}:{}", host, port);
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JSONObject message = new JSONObject(line);
+                String type = message.getString("type");
+                if (type.equals("exit")) {
+                    logger.info("Coordinator has no more work, exiting");
+                    return;
+                }
+                if (type.equals("shard")) {
+                    testShard(message.getJSONArray("instances"), channel);
+                }
+            }
+            logger.warn("Coordinator closed the connection");
+        } catch (IOException | JSONException exception) {
+            logger.error("Lost connection to coordinator at {}:{}", host, port, exception);
+        }
+    }
+
+    /**
+     * Test one shard and send everything back.
+     *
+     * @param shard   The instances in the shard.
+     * @param channel The connection to the coordinator.
+     * @throws IOException If the connection is gone, the shard is stopped as soon as a send fails.
+     */
+    private void testShard(JSONArray shard, ClusterProtocol.Channel channel) throws IOException {
+        List<Instance> instances = new ArrayList<>();
+        // set once a send fails, nothing else is sent after that
+        AtomicReference<IOException> lost = new AtomicReference<>();
+        for (int i = 0; i < shard.length(); i++) {
+            Instance instance = ClusterProtocol.instanceFromJSON(shard.getJSONObject(i));
+            // results are sent as they come in, a dead connection shows up on the next send
+            instance.setResultListener(result -> {
+                if (lost.get() != null) {
+                    return;
+                }
+                JSONObject message = ClusterProtocol.message("result");
+                message.put("api", instance.getApi());
+                message.put("result", ClusterProtocol.resultToJSON(result));
+                try {
+                    channel.send(message);
+                } catch (IOException exception) {
+                    // the coordinator gives the shard to someone else, no point in finishing it
+                    if (lost.compareAndSet(null, exception)) {
+                        logger.error("Unable to send result for {}, stopping the shard", instance.getApi(), exception);
+                        CobaltDirectory.stopRun();
+                    }
+                }
+            });
+            instances.add(instance);
+        }
+        logger.info("Testing shard of {} instances", instances.size());
+        CobaltDirectory.testInstances(instances, init, services);
+        if (lost.get() != null) {
+            throw lost.get();
+        }
+
+        for (Instance instance : instances) {
+            JSONObject message = ClusterProtocol.message("instance");
+            message.put("instance", ClusterProtocol.stateToJSON(instance));
+            channel.send(message);
+        }
+        channel.send(ClusterProtocol.message("done"));
+    }
+
+    /**
+     * Connect to the coordinator, waiting a little if it isn't listening yet.
+     *
+     * @return The connection.
+     * @throws IOException If it never answered.
+     */
+    private Socket connect() throws IOException {
+        IOException last = null;
+        for (int attempt = 0; attempt < CONNECT_ATTEMPTS; attempt++) {
+            try {
+                return new Socket(host, port);
+            } catch (IOException exception) {
+                last = exception;
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        throw last == null ? new IOException("Interrupted while connecting") : last;
+    }
+}
@@ -0,0 +1,72 @@
+package lol.hyper.cobaltdirectory.history;
+
+/**
+ * Why a test failed, roughly, so history can be grouped without storing the message.
+ * The ids are stored on disk, so never reorder them.
+ */
+public enum ErrorClass {
+    NONE(0),
+    TIMEOUT(1),
+    NETWORK(2),
+    INVALID_RESPONSE(3),
+    SERVICE(4),
+    RATE_LIMITED(5),
+    TUNNEL(6),
+    SKIPPED(7),
+    OTHER(8);
+
+    private final int id;
+
+    ErrorClass(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public static ErrorClass fromId(int id) {
+        for (ErrorClass errorClass : values()) {
+            if (errorClass.id == id) {
+                return errorClass;
+            }
+        }
+        return OTHER;
+    }
+
+    /**
+     * Work out the class from a test's result message.
+     *
+     * @param status  If the test passed.
+     * @param message The message.
+     * @return The class.
+     */
+    public static ErrorClass classify(boolean status, String message) {
+        if (status) {
+            return NONE;
+        }
+        if (message == null) {
+            return OTHER;
+        }
+        if (message.startsWith("Timed out") || message.contains("SocketTimeout") || message.contains("TimeoutException")) {
+            return TIMEOUT;
+        }
+        if (message.startsWith("Rate limited")) {
+            return RATE_LIMITED;
+        }
+        if (message.contains("turnstile")) {
+            return SKIPPED;
+        }
+        if (message.contains("tunnel") || message.contains("content-length") || message.contains("is too small") || message.endsWith("is 0")) {
+            return TUNNEL;
+        }
+        if (message.contains("JSONException") || message.startsWith("Malformed API response") || message.startsWith("Invalid cobalt status")
+                || message.contains("but no url") || message.contains("no picker items") || message.startsWith("Response content returned null")) {
+            return INVALID_RESPONSE;
+        }
+        if (message.contains("Exception")) {
+            return NETWORK;
+        }
+        return SERVICE;
+    }
+}
@@ -0,0 +1,28 @@
+package lol.hyper.cobaltdirectory.history;
+
+/**
+ * One test result in the history store.
+ *
+ * @param timestamp  When the test ran, in epoch milliseconds.
+ * @param instance   The instance id, see {@link HistoryStore#instanceName(int)}.
+ * @param service    The service id, see {@link HistoryStore#serviceName(int)}.
+ * @param status     If the test passed.
+ * @param errorClass Why it failed, NONE if it passed.
+ * @param latency    How long the request took in milliseconds, or -1 if it wasn't timed.
+ */
+public record HistoryRecord(long timestamp, int instance, int service, boolean status, ErrorClass errorClass, int latency) {
+
+    /**
+     * Sort order of compacted segments: by instance, then service, then time.
+     */
+    static int compare(int instance, int service, long timestamp, HistoryRecord record) {
+        int result = Integer.compare(instance, record.instance);
+        if (result == 0) {
+            result = Integer.compare(service, record.service);
+        }
+        if (result == 0) {
+            result = Long.compare(timestamp, record.timestamp);
+        }
+        return result;
+    }
+}
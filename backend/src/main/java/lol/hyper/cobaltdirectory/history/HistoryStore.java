@@ -0,0 +1,294 @@
+package lol.hyper.cobaltdirectory.history;
+
+import lol.hyper.cobaltdirectory.instance.Instance;
+import lol.hyper.cobaltdirectory.tests.TestResult;
+import lol.hyper.cobaltdirectory.utils.AtomicOutput;
+import lol.hyper.cobaltdirectory.utils.FileUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps every test result from every run, so uptime and latency can be looked at over time.
+ * Results go into fixed-width records in memory-mapped segment files, which are only ever
+ * appended to. Full segments are compacted so scans for one instance are quick, and segments
+ * are only mapped while they are read, so the history never has to fit on the heap.
+ * <p>
+ * Instances and services are stored as ids, and the names for the ids are kept in names.json.
+ * Each run also stores the API check itself, as the service "API".
+ */
+public class HistoryStore {
+
+    // 256k records is 6 MB per segment
+    private static final int SEGMENT_RECORDS = 1 << 18;
+    public static final String API = "API";
+
+    private final Logger logger = LogManager.getLogger(this);
+    private final File directory;
+    private final File namesFile;
+    private final List<String> instanceNames = new ArrayList<>();
+    private final Map<String, Integer> instanceIds = new HashMap<>();
+    private final List<String> serviceNames = new ArrayList<>();
+    private final Map<String, Integer> serviceIds = new HashMap<>();
+    private final List<Segment> segments = new ArrayList<>();
+    private boolean namesChanged = false;
+    // set when names.json can't be read, new ids would clash with the ones already on disk
+    private boolean disabled = false;
+    private Segment active;
+
+    public HistoryStore(File directory) {
+        this.directory = directory;
+        this.namesFile = new File(directory, "names.json");
+    }
+
+    /**
+     * Load the names and segment headers. Segments that can't be read are skipped.
+     */
+    public synchronized void open() {
+        if (!directory.exists() && !directory.mkdirs()) {
+            logger.error("Unable to create history directory {}", directory.getAbsolutePath());
+            return;
+        }
+        loadNames();
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".seg"));
+        if (files != null) {
+            for (File file : files) {
+                try {
+                    long sequence = Long.parseLong(file.getName().substring(0, file.getName().length() - 4));
+                    segments.add(Segment.read(file, sequence));
+                } catch (IOException | NumberFormatException exception) {
+                    logger.warn("Skipping history segment {}", file.getName(), exception);
+                }
+            }
+        }
+        segments.sort(Comparator.comparingLong(Segment::getSequence));
+        long records = segments.stream().mapToLong(Segment::getCount).sum();
+        logger.info("Loaded {} history segments with {} records", segments.size(), records);
+
+        // keep appending to the last segment if it has room
+        if (!segments.isEmpty()) {
+            Segment last = segments.getLast();
+            if (!last.isSorted() && !last.isFull(SEGMENT_RECORDS)) {
+                try {
+                    last.openForAppend(SEGMENT_RECORDS);
+                    active = last;
+                } catch (IOException exception) {
+                    logger.warn("Unable to map history segment {}, starting a new one", last.getSequence(), exception);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add an instance's results from this run. Results from before the run started were
+     * carried forward or are from a previous run, so they are skipped.
+     *
+     * @param instance The instance, after its tests.
+     * @param since    When the run started.
+     */
+    public synchronized void append(Instance instance, long since) {
+        if (disabled) {
+            return;
+        }
+        int instanceId = id(instance.getApi(), instanceNames, instanceIds);
+        try {
+            int latency = instance.getNetworkTiming() != null ? (int) instance.getNetworkTiming().total() : -1;
+            append(new HistoryRecord(since, instanceId, id(API, serviceNames, serviceIds), instance.isApiWorking(),
+                    instance.isApiWorking() ? ErrorClass.NONE : ErrorClass.NETWORK, latency));
+            for (TestResult result : instance.getTestResults()) {
+                if (result.testedAt() < since) {
+                    continue;
+                }
+                int serviceId = id(result.service(), serviceNames, serviceIds);
+                latency = result.timing() != null ? (int) result.timing().total() : -1;
+                append(new HistoryRecord(result.testedAt(), instanceId, serviceId, result.status(), ErrorClass.classify(result.status(), result.message()), latency));
+            }
+        } catch (IOException exception) {
+            logger.error("Unable to write history for {}", instance.getApi(), exception);
+        }
+    }
+
+    /**
+     * Make sure everything appended is on disk. The names go first, so records on disk
+     * never have ids that names.json doesn't know about.
+     */
+    public synchronized void flush() {
+        if (namesChanged) {
+            JSONObject names = new JSONObject();
+            names.put("instances", new JSONArray(instanceNames));
+            names.put("services", new JSONArray(serviceNames));
+            // written to a temp file and renamed, so names.json is never half written
+            try (AtomicOutput output = new AtomicOutput(namesFile, false)) {
+                output.value(names);
+                output.commit();
+                namesChanged = false;
+            } catch (IOException exception) {
+                logger.error("Unable to write history names {}", namesFile.getAbsolutePath(), exception);
+            }
+        }
+        if (active != null) {
+            active.force();
+        }
+    }
+
+    /**
+     * Sort every full segment that isn't sorted yet. Only one segment is in memory at a time.
+     */
+    public synchronized void compact() {
+        for (Segment segment : segments) {
+            if (segment.isSorted() || segment.isOpen()) {
+                continue;
+            }
+            try {
+                segment.compact();
+                logger.info("Compacted history segment {} with {} records", segment.getSequence(), segment.getCount());
+            } catch (IOException exception) {
+                logger.warn("Unable to compact history segment {}", segment.getSequence(), exception);
+            }
+        }
+    }
+
+    /**
+     * Find records for an instance and service over a time range.
+     *
+     * @param api      The instance's API, or null for every instance.
+     * @param service  The service, or null for every service.
+     * @param from     The earliest timestamp, inclusive.
+     * @param to       The latest timestamp, inclusive.
+     * @param consumer Gets each record, oldest segment first.
+     */
+    public synchronized void scan(String api, String service, long from, long to, Consumer<HistoryRecord> consumer) {
+        int instanceId = api == null ? -1 : instanceIds.getOrDefault(api, -2);
+        int serviceId = service == null ? -1 : serviceIds.getOrDefault(service, -2);
+        // never seen, so there is nothing to find
+        if (instanceId == -2 || serviceId == -2) {
+            return;
+        }
+        for (Segment segment : segments) {
+            try {
+                segment.scan(instanceId, serviceId, from, to, consumer);
+            } catch (IOException exception) {
+                logger.warn("Unable to read history segment {}", segment.getSequence(), exception);
+            }
+        }
+    }
+
+    /**
+     * Work out how often each instance's API was online over the last day, week and month.
+     * This is one pass over the last month of segments.
+     *
+     * @param now The current time.
+     * @return The uptime for each instance, by API.
+     */
+    public synchronized Map<String, Uptime> uptime(long now) {
+        long day = now - TimeUnit.DAYS.toMillis(1);
+        long week = now - TimeUnit.DAYS.toMillis(7);
+        long month = now - TimeUnit.DAYS.toMillis(30);
+        // online and total checks for each window
+        Map<Integer, long[]> counts = new HashMap<>();
+        scan(null, API, month, now, record -> {
+            long[] count = counts.computeIfAbsent(record.instance(), id -> new long[6]);
+            int online = record.status() ? 1 : 0;
+            count[4] += online;
+            count[5]++;
+            if (record.timestamp() >= week) {
+                count[2] += online;
+                count[3]++;
+            }
+            if (record.timestamp() >= day) {
+                count[0] += online;
+                count[1]++;
+            }
+        });
+        Map<String, Uptime> uptime = new HashMap<>();
+        counts.forEach((id, count) -> uptime.put(instanceNames.get(id), new Uptime(percent(count[0], count[1]), percent(count[2], count[3]), percent(count[4], count[5]))));
+        return uptime;
+    }
+
+    public synchronized String instanceName(int id) {
+        return id >= 0 && id < instanceNames.size() ? instanceNames.get(id) : null;
+    }
+
+    public synchronized String serviceName(int id) {
+        return id >= 0 && id < serviceNames.size() ? serviceNames.get(id) : null;
+    }
+
+    /**
+     * Flush and unmap the segment being appended to.
+     */
+    public synchronized void close() {
+        flush();
+        if (active != null) {
+            try {
+                active.close();
+            } catch (IOException exception) {
+                logger.warn("Unable to close history segment {}", active.getSequence(), exception);
+            }
+            active = null;
+        }
+    }
+
+    private void append(HistoryRecord record) throws IOException {
+        if (active == null || active.isFull(SEGMENT_RECORDS)) {
+            if (active != null) {
+                active.close();
+            }
+            long sequence = segments.isEmpty() ? 0 : segments.getLast().getSequence() + 1;
+            active = Segment.create(new File(directory, String.format("%012d.seg", sequence)), sequence, SEGMENT_RECORDS);
+            segments.add(active);
+        }
+        active.append(record);
+    }
+
+    private int id(String name, List<String> names, Map<String, Integer> ids) {
+        return ids.computeIfAbsent(name, key -> {
+            names.add(key);
+            namesChanged = true;
+            return names.size() - 1;
+        });
+    }
+
+    private void loadNames() {
+        if (!namesFile.exists()) {
+            return;
+        }
+        String contents = FileUtil.readFile(namesFile);
+        if (contents == null) {
+            disabled = true;
+            logger.error("Unable to read history names {}, nothing new will be added to the history", namesFile.getAbsolutePath());
+            return;
+        }
+        try {
+            JSONObject names = new JSONObject(contents);
+            JSONArray instances = names.getJSONArray("instances");
+            for (int i = 0; i < instances.length(); i++) {
+                instanceNames.add(instances.getString(i));
+                instanceIds.put(instances.getString(i), i);
+            }
+            JSONArray services = names.getJSONArray("services");
+            for (int i = 0; i < services.length(); i++) {
+                serviceNames.add(services.getString(i));
+                serviceIds.put(services.getString(i), i);
+            }
+        } catch (JSONException exception) {
+            disabled = true;
+            logger.error("History names {} are invalid, history can't be read and nothing new will be added to it", namesFile.getAbsolutePath(), exception);
+        }
+    }
+
+    private static double percent(long online, long total) {
+        return total == 0 ? -1 : Math.round(online * 10000.0 / total) / 100.0;
+    }
+}
@@ -0,0 +1,288 @@
+package lol.hyper.cobaltdirectory.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * One file of the history store, a header and then fixed-width records. New segments are
+ * appended to in time order. Once a segment is full it is compacted, which sorts its records
+ * by instance, service and time so scans for one instance can binary search to it.
+ * <p>
+ * Header, 32 bytes: magic (int), version (short), flags (short), count (long), first timestamp (long), last timestamp (long).
+ * Record, 24 bytes: timestamp (long), instance (int), service (short), status (byte), error class (byte), latency (int), reserved (int).
+ */
+class Segment {
+
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 24;
+    private static final int MAGIC = 0x43444853;
+    private static final short VERSION = 1;
+    private static final short SORTED = 1;
+
+    private final File file;
+    private final long sequence;
+    private long count;
+    private long minTimestamp = Long.MAX_VALUE;
+    private long maxTimestamp = Long.MIN_VALUE;
+    private boolean sorted;
+    // only mapped while this is the segment being appended to
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    private Segment(File file, long sequence) {
+        this.file = file;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Create an empty segment and map it for appending.
+     *
+     * @param file     The file.
+     * @param sequence The segment's number.
+     * @param capacity How many records it holds.
+     * @return The segment.
+     * @throws IOException If the file can't be created.
+     */
+    static Segment create(File file, long sequence, int capacity) throws IOException {
+        Segment segment = new Segment(file, sequence);
+        segment.openForAppend(capacity);
+        segment.writeHeader();
+        return segment;
+    }
+
+    /**
+     * Read a segment's header.
+     *
+     * @param file     The file.
+     * @param sequence The segment's number.
+     * @return The segment.
+     * @throws IOException If the file can't be read or isn't a segment.
+     */
+    static Segment read(File file, long sequence) throws IOException {
+        Segment segment = new Segment(file, sequence);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // keep reading
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a history segment");
+            }
+            short version = header.getShort();
+            if (version != VERSION) {
+                throw new IOException(file + " has unknown version " + version);
+            }
+            segment.sorted = (header.getShort() & SORTED) != 0;
+            segment.count = header.getLong();
+            segment.minTimestamp = header.getLong();
+            segment.maxTimestamp = header.getLong();
+            // a crash can leave the count ahead of a truncated file
+            long fits = (channel.size() - HEADER_SIZE) / RECORD_SIZE;
+            segment.count = Math.min(segment.count, Math.max(0, fits));
+        }
+        return segment;
+    }
+
+    /**
+     * Map the segment to append to it.
+     *
+     * @param capacity How many records it holds.
+     * @throws IOException If it can't be mapped.
+     */
+    void openForAppend(int capacity) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+    }
+
+    boolean isFull(int capacity) {
+        return count >= capacity;
+    }
+
+    /**
+     * Add a record. The count in the header is bumped after the record is written, so a
+     * crash loses at most the record being written.
+     *
+     * @param record The record.
+     */
+    void append(HistoryRecord record) {
+        writeRecord(buffer, HEADER_SIZE + (int) (count * RECORD_SIZE), record);
+        count++;
+        minTimestamp = Math.min(minTimestamp, record.timestamp());
+        maxTimestamp = Math.max(maxTimestamp, record.timestamp());
+        writeHeader();
+    }
+
+    void force() {
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * Stop appending, and unmap the file.
+     *
+     * @throws IOException If the channel can't be closed.
+     */
+    void close() throws IOException {
+        force();
+        buffer = null;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Find records in this segment.
+     *
+     * @param instance The instance id, or -1 for any.
+     * @param service  The service id, or -1 for any.
+     * @param from     The earliest timestamp, inclusive.
+     * @param to       The latest timestamp, inclusive.
+     * @param consumer Gets each matching record.
+     * @throws IOException If the segment can't be read.
+     */
+    void scan(int instance, int service, long from, long to, Consumer<HistoryRecord> consumer) throws IOException {
+        if (count == 0 || maxTimestamp < from || minTimestamp > to) {
+            return;
+        }
+        ByteBuffer records = buffer != null ? buffer.duplicate() : mapForRead();
+        long start = 0;
+        if (sorted && instance >= 0) {
+            start = lowerBound(records, instance, Math.max(0, service), service >= 0 ? from : Long.MIN_VALUE);
+        }
+        for (long i = start; i < count; i++) {
+            HistoryRecord record = readRecord(records, HEADER_SIZE + (int) (i * RECORD_SIZE));
+            if (sorted && instance >= 0 && (record.instance() != instance || (service >= 0 && record.service() != service))) {
+                // sorted, so nothing after this matches
+                break;
+            }
+            if ((instance < 0 || record.instance() == instance) && (service < 0 || record.service() == service)
+                    && record.timestamp() >= from && record.timestamp() <= to) {
+                consumer.accept(record);
+            }
+        }
+    }
+
+    /**
+     * Sort the records by instance, service and time. The sorted copy is written next to the
+     * segment and renamed over it, so a crash leaves either the old or the new file.
+     *
+     * @throws IOException If the segment can't be rewritten.
+     */
+    void compact() throws IOException {
+        if (sorted) {
+            return;
+        }
+        ByteBuffer records = mapForRead();
+        List<HistoryRecord> list = new ArrayList<>((int) count);
+        for (long i = 0; i < count; i++) {
+            list.add(readRecord(records, HEADER_SIZE + (int) (i * RECORD_SIZE)));
+        }
+        list.sort(Comparator.comparingInt(HistoryRecord::instance).thenComparingInt(HistoryRecord::service).thenComparingLong(HistoryRecord::timestamp));
+
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        // the header written below has to carry the flag, it is taken back if the file never replaces this one
+        sorted = true;
+        try {
+            try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer map = out.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + count * RECORD_SIZE);
+                writeHeader(map);
+                for (int i = 0; i < list.size(); i++) {
+                    writeRecord(map, HEADER_SIZE + i * RECORD_SIZE, list.get(i));
+                }
+                map.force();
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException exception) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException exception) {
+            sorted = false;
+            Files.deleteIfExists(temp.toPath());
+            throw exception;
+        }
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    boolean isSorted() {
+        return sorted;
+    }
+
+    boolean isOpen() {
+        return buffer != null;
+    }
+
+    private ByteBuffer mapForRead() throws IOException {
+        try (FileChannel read = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            return read.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(read.size(), HEADER_SIZE + count * RECORD_SIZE));
+        }
+    }
+
+    /**
+     * Find the first record that sorts at or after the key.
+     */
+    private long lowerBound(ByteBuffer records, int instance, int service, long timestamp) {
+        long low = 0;
+        long high = count;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            HistoryRecord record = readRecord(records, HEADER_SIZE + (int) (middle * RECORD_SIZE));
+            if (HistoryRecord.compare(instance, service, timestamp, record) > 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void writeHeader() {
+        writeHeader(buffer);
+    }
+
+    private void writeHeader(ByteBuffer target) {
+        target.putInt(0, MAGIC);
+        target.putShort(4, VERSION);
+        target.putShort(6, sorted ? SORTED : 0);
+        target.putLong(8, count);
+        target.putLong(16, minTimestamp);
+        target.putLong(24, maxTimestamp);
+    }
+
+    private static void writeRecord(ByteBuffer target, int position, HistoryRecord record) {
+        target.putLong(position, record.timestamp());
+        target.putInt(position + 8, record.instance());
+        target.putShort(position + 12, (short) record.service());
+        target.put(position + 14, (byte) (record.status() ? 1 : 0));
+        target.put(position + 15, (byte) record.errorClass().getId());
+        target.putInt(position + 16, record.latency());
+        target.putInt(position + 20, 0);
+    }
+
+    private static HistoryRecord readRecord(ByteBuffer source, int position) {
+        return new HistoryRecord(source.getLong(position), source.getInt(position + 8), source.getShort(position + 12),
+                source.get(position + 14) != 0, ErrorClass.fromId(source.get(position + 15)), source.getInt(position + 16));
+    }
+}
@@ -0,0 +1,28 @@
+package lol.hyper.cobaltdirectory.history;
+
+import org.json.JSONObject;
+
+/**
+ * How often an instance's API was online, as a percentage. A window is -1 if there are
+ * no checks in it.
+ *
+ * @param day   The last 24 hours.
+ * @param week  The last 7 days.
+ * @param month The last 30 days.
+ */
+public record Uptime(double day, double week, double month) {
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        putWindow(json, "day", day);
+        putWindow(json, "week", week);
+        putWindow(json, "month", month);
+        return json;
+    }
+
+    private static void putWindow(JSONObject json, String window, double value) {
+        if (value >= 0) {
+            json.put(window, value);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package lol.hyper.cobaltdirectory.instance;
+
+import lol.hyper.cobaltdirectory.tests.TestResult;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Spots instances that are the same backend behind different domains as soon as their API
+ * checks finish, so the services are only tested once per backend. A backend is known by its
+ * start time, version, git remote and the IP its API resolves to. The first instance seen for
+ * a backend is tested, and the others become aliases that get its results at the end of the run.
+ * Frontends at the same URL are only tested once the same way.
+ */
+public class Backends {
+
+    private final Logger logger = LogManager.getLogger(this);
+    private final Map<String, Instance> backends = new ConcurrentHashMap<>();
+    private final Map<String, Instance> frontends = new ConcurrentHashMap<>();
+    // alias -> the instance that is actually tested
+    private final Map<Instance, Instance> backendAliases = new ConcurrentHashMap<>();
+    private final Map<Instance, Instance> frontendAliases = new ConcurrentHashMap<>();
+
+    /**
+     * Check if an instance's services need testing, or if another instance already tests its backend.
+     * Call this after the API check.
+     *
+     * @param instance The instance.
+     * @return True if it should be tested, false if it is an alias.
+     */
+    public boolean claimBackend(Instance instance) {
+        // without a start time there is nothing to tell backends apart with
+        if (instance.getStartTime() == 0) {
+            return true;
+        }
+        String fingerprint = instance.getStartTime() + "|" + instance.getVersion() + "|" + instance.getRemote() + "|" + resolve(instance.getApi());
+        Instance primary = backends.putIfAbsent(fingerprint, instance);
+        if (primary == null || primary == instance) {
+            return true;
+        }
+        logger.warn("{} is the same backend as {}, reusing its results", instance.getApi(), primary.getApi());
+        instance.setAliasOf(primary.getApi());
+        backendAliases.put(instance, primary);
+        return false;
+    }
+
+    /**
+     * Check if an instance's frontend needs testing, or if another instance has the same frontend.
+     *
+     * @param instance The instance.
+     * @return True if it should be tested, false if it is an alias.
+     */
+    public boolean claimFrontend(Instance instance) {
+        String url = (instance.getProtocol() + "://" + instance.getFrontEnd()).toLowerCase(Locale.ROOT);
+        if (url.endsWith("/")) {
+            url = url.substring(0, url.length() - 1);
+        }
+        Instance primary = frontends.putIfAbsent(url, instance);
+        if (primary == null || primary == instance) {
+            return true;
+        }
+        logger.warn("{} has the same frontend as {}, reusing its result", instance.getApi(), primary.getApi());
+        instance.setFrontEndAliasOf(primary.getApi());
+        frontendAliases.put(instance, primary);
+        return false;
+    }
+
+    /**
+     * Copy the results of every tested instance to its aliases. Call this once the tests are done.
+     */
+    public void fanOut() {
+        backendAliases.forEach((alias, primary) -> {
+            for (TestResult result : primary.getTestResults()) {
+                if (!result.service().equals("Frontend")) {
+                    alias.addResult(result);
+                }
+            }
+        });
+        frontendAliases.forEach((alias, primary) -> {
+            for (TestResult result : primary.getTestResults()) {
+                if (result.service().equals("Frontend")) {
+                    alias.addResult(result);
+                }
+            }
+        });
+    }
+
+    /**
+     * Get the IP an API resolves to.
+     *
+     * @param api The API, which can have a port or path on it.
+     * @return The IP, or the API if it doesn't resolve.
+     */
+    private String resolve(String api) {
+        try {
+            String name = URI.create("http://" + api).getHost();
+            return InetAddress.getByName(name != null ? name : api).getHostAddress();
+        } catch (UnknownHostException | IllegalArgumentException | SecurityException exception) {
+            return api;
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package lol.hyper.cobaltdirectory.instance;
 
+import lol.hyper.cobaltdirectory.requests.RequestTiming;
 import lol.hyper.cobaltdirectory.tests.TestResult;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
 
 public class Instance implements Comparable<Instance> {
 
@@ -17,8 +19,15 @@ public class Instance implements Comparable<Instance> {
     private boolean turnstile = false;
     private boolean fork;
     private String remote;
+    private RequestTiming networkTiming;
+    // the API of the instance whose results this one shares, if it is the same backend or frontend
+    private String aliasOf;
+    private String frontEndAliasOf;
 
-    private final List<TestResult> testResults = new ArrayList<>();
+    // tests finish on many threads at once, this stays lock-free for virtual threads
+    private final Collection<TestResult> testResults = new ConcurrentLinkedQueue<>();
+    // called with every result as it is added, workers use it to stream results to the coordinator
+    private volatile Consumer<TestResult> resultListener;
 
     public Instance(String frontEnd, String api, String protocol) {
         this.frontEnd = frontEnd;
@@ -86,12 +95,20 @@ public class Instance implements Comparable<Instance> {
         this.remote = remote;
     }
 
-    public List<TestResult> getTestResults() {
+    public Collection<TestResult> getTestResults() {
         return testResults;
     }
 
     public void addResult(TestResult testResult) {
         testResults.add(testResult);
+        Consumer<TestResult> listener = resultListener;
+        if (listener != null) {
+            listener.accept(testResult);
+        }
+    }
+
+    public void setResultListener(Consumer<TestResult> resultListener) {
+        this.resultListener = resultListener;
     }
 
     public long getStartTime() {
@@ -106,6 +123,30 @@ public class Instance implements Comparable<Instance> {
         this.fork = fork;
     }
 
+    public RequestTiming getNetworkTiming() {
+        return networkTiming;
+    }
+
+    public void setNetworkTiming(RequestTiming networkTiming) {
+        this.networkTiming = networkTiming;
+    }
+
+    public String getAliasOf() {
+        return aliasOf;
+    }
+
+    public void setAliasOf(String aliasOf) {
+        this.aliasOf = aliasOf;
+    }
+
+    public String getFrontEndAliasOf() {
+        return frontEndAliasOf;
+    }
+
+    public void setFrontEndAliasOf(String frontEndAliasOf) {
+        this.frontEndAliasOf = frontEndAliasOf;
+    }
+
     public void setOffline() {
         this.setApiWorking(false);
         this.setVersion("Offline");
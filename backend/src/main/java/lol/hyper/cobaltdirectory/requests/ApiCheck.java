@@ -2,13 +2,15 @@ package lol.hyper.cobaltdirectory.requests;
 
 import lol.hyper.cobaltdirectory.CobaltDirectory;
 import lol.hyper.cobaltdirectory.instance.Instance;
-import lol.hyper.cobaltdirectory.utils.RequestUtil;
 import org.apache.commons.text.StringEscapeUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+
 public class ApiCheck {
 
     private final Instance instance;
@@ -18,6 +20,10 @@ public class ApiCheck {
         this.instance = instance;
     }
 
+    public Instance getInstance() {
+        return instance;
+    }
+
     public void run() {
         String protocol = instance.getProtocol();
         String api = instance.getApi();
@@ -30,14 +36,33 @@ public class ApiCheck {
             requestApi = requestApi.substring(0, requestApi.length() - 1);
         }
 
-        // check API
-        if (!RequestUtil.head(requestApi)) {
-            logger.error("{} failed HEAD request, marking instance as offline!", api);
+        // check API, this is a single GET that can come back as 304 if nothing changed
+        ResponseCache cache = CobaltDirectory.getResponseCache();
+        CachedResponse cached = cache.get(requestApi);
+        TimeoutPolicy timeouts = CobaltDirectory.getTimeoutPolicy();
+        Duration timeout = timeouts.timeout(api, "info", 1);
+        RequestResults apiContent = CobaltDirectory.getTransport().requestJSON(requestApi, cached, timeout);
+        if (apiContent.timing() != null) {
+            timeouts.record(api, "info", apiContent.timing().ttfb());
+        } else if (apiContent.exception() instanceof HttpTimeoutException) {
+            timeouts.record(api, "info", timeout.toMillis());
+        }
+        // the first request to the instance, so its ttfb includes opening the connection
+        if (apiContent.responseCode() == 200 || apiContent.responseCode() == 304) {
+            instance.setNetworkTiming(apiContent.timing());
+        }
+        if (apiContent.responseCode() == 304 && cached != null) {
+            logger.info("{} has not changed since the last run, using cached info", requestApi);
+            cache.touch(requestApi);
+            instance.setApiWorking(true);
+            loadFacts(cached.facts());
+            return;
+        }
+        if (apiContent.responseCode() != 200) {
+            logger.error("{} returned HTTP {}, marking instance as offline!", api, apiContent.responseCode());
             instance.setOffline();
             return;
         }
-
-        RequestResults apiContent = RequestUtil.requestJSON(requestApi);
         String responseContent = apiContent.responseContent();
         if (responseContent == null) {
             logger.error("responseContent returned null for {}", requestApi);
@@ -58,6 +83,7 @@ public class ApiCheck {
         // on cobalt 10, the JSON response is different
         if (json.has("cobalt")) {
             loadNewApi(json);
+            cache.put(requestApi, apiContent.headers(), saveFacts());
             return;
         }
 
@@ -82,6 +108,37 @@ public class ApiCheck {
                 logger.warn("{} has an invalid startTime!", api);
             }
         }
+        cache.put(requestApi, apiContent.headers(), saveFacts());
+    }
+
+    /**
+     * Save what we learned about the instance, so a 304 next run can reuse it.
+     *
+     * @return The facts.
+     */
+    private JSONObject saveFacts() {
+        JSONObject facts = new JSONObject();
+        facts.put("version", instance.getVersion());
+        facts.put("startTime", instance.getStartTime());
+        facts.put("remote", instance.getRemote());
+        facts.put("is10", instance.is10());
+        facts.put("fork", instance.isFork());
+        facts.put("turnstile", instance.hasTurnstile());
+        return facts;
+    }
+
+    /**
+     * Load what we learned about the instance on a previous run.
+     *
+     * @param facts The facts.
+     */
+    private void loadFacts(JSONObject facts) {
+        instance.setVersion(facts.optString("version", "Unknown"));
+        instance.setStartTime(facts.optLong("startTime", 0L));
+        instance.setRemote(facts.optString("remote", null));
+        instance.setIs10(facts.optBoolean("is10"));
+        instance.setFork(facts.optBoolean("fork"));
+        instance.setTurnstile(facts.optBoolean("turnstile"));
     }
 
     private void loadNewApi(JSONObject response) {
@@ -0,0 +1,25 @@
+package lol.hyper.cobaltdirectory.requests;
+
+/**
+ * The parts of a cobalt API response that a test looks at.
+ *
+ * @param status      The status, or null if it was missing.
+ * @param url         The url for tunnel/stream/redirect responses.
+ * @param tunnel      The first tunnel url for local-processing responses.
+ * @param hasTunnel   If the response had a tunnel array at all.
+ * @param pickerCount How many items the picker has, or -1 if there was no picker.
+ * @param errorCode   error.code on cobalt 10, or error if a fork sends it as a string.
+ * @param text        The error text on older cobalt.
+ * @param malformed   What was wrong with the JSON, or null if it was valid.
+ */
+public record ApiResponse(String status, String url, String tunnel, boolean hasTunnel, int pickerCount,
+                          String errorCode, String text, String malformed) {
+
+    public static ApiResponse malformed(String problem) {
+        return new ApiResponse(null, null, null, false, -1, null, null, problem);
+    }
+
+    public boolean isMalformed() {
+        return malformed != null;
+    }
+}
@@ -0,0 +1,550 @@
+package lol.hyper.cobaltdirectory.requests;
+
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes a cobalt API response straight from the bytes as they arrive. It walks the JSON
+ * without building it, and only keeps the handful of fields a test looks at. Everything else,
+ * like the items in a picker, is checked for valid syntax and then skipped.
+ */
+public class ApiResponseDecoder implements HttpResponse.BodySubscriber<ApiResponse> {
+
+    private static final int MAX_DEPTH = 256;
+
+    // the keys we care about, matched as bytes so we never make strings for the others
+    private static final int KEY_OTHER = -1;
+    private static final int KEY_STATUS = 0;
+    private static final int KEY_URL = 1;
+    private static final int KEY_TUNNEL = 2;
+    private static final int KEY_PICKER = 3;
+    private static final int KEY_ERROR = 4;
+    private static final int KEY_CODE = 5;
+    private static final int KEY_TEXT = 6;
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    // what the decoder reads as bytes, a charset has to write these the same way as ascii
+    private static final String SYNTAX = "{}[]:,\"\\ -.+0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+    private static final byte[][] KEYS = {
+            "status".getBytes(StandardCharsets.US_ASCII),
+            "url".getBytes(StandardCharsets.US_ASCII),
+            "tunnel".getBytes(StandardCharsets.US_ASCII),
+            "picker".getBytes(StandardCharsets.US_ASCII),
+            "error".getBytes(StandardCharsets.US_ASCII),
+            "code".getBytes(StandardCharsets.US_ASCII),
+            "text".getBytes(StandardCharsets.US_ASCII)
+    };
+
+    private enum State {
+        VALUE, VALUE_OR_END, KEY, KEY_OR_END, COLON, COMMA_OR_END, STRING, ESCAPE, UNICODE, LITERAL, DONE
+    }
+
+    private final CompletableFuture<ApiResponse> result = new CompletableFuture<>();
+    private final long deadline;
+    private final Charset charset;
+    private Flow.Subscription subscription;
+
+    private State state = State.VALUE;
+    // per container: object or array, current key, and how many values it holds so far
+    private final boolean[] isObject = new boolean[MAX_DEPTH + 1];
+    private final int[] keys = new int[MAX_DEPTH + 1];
+    private final int[] counts = new int[MAX_DEPTH + 1];
+    private int depth = 0;
+
+    // the string or literal being read
+    private boolean readingKey;
+    private int captureKey;
+    private boolean capture;
+    private byte[] buffer = new byte[64];
+    private int length = 0;
+    private int unicode;
+    private int unicodeDigits;
+    private int highSurrogate = -1;
+
+    // what we pulled out
+    private String status;
+    private String url;
+    private String tunnel;
+    private boolean hasTunnel;
+    private int pickerCount = -1;
+    private String errorCode;
+    private String text;
+
+    /**
+     * Create a decoder.
+     *
+     * @param deadline System.nanoTime() by which the whole body has to be read.
+     * @param charset  The charset the body is in.
+     */
+    public ApiResponseDecoder(long deadline, Charset charset) {
+        this.deadline = deadline;
+        this.charset = charset;
+    }
+
+    /**
+     * Get the charset from a response's Content-Type. JSON is UTF-8 unless it says otherwise,
+     * and a charset the decoder can't walk byte by byte, like UTF-16, is read as UTF-8 too.
+     *
+     * @param info The response status and headers.
+     * @return The charset.
+     */
+    public static Charset charsetOf(HttpResponse.ResponseInfo info) {
+        String contentType = info.headers().firstValue("Content-Type").orElse("");
+        for (String param : contentType.split(";")) {
+            String[] pair = param.trim().split("=", 2);
+            if (pair.length != 2 || !pair[0].trim().equalsIgnoreCase("charset")) {
+                continue;
+            }
+            try {
+                Charset charset = Charset.forName(pair[1].trim().replace("\"", ""));
+                if (Arrays.equals(SYNTAX.getBytes(charset), SYNTAX.getBytes(StandardCharsets.US_ASCII))) {
+                    return charset;
+                }
+            } catch (IllegalArgumentException exception) {
+                // unknown or unsupported charset
+            }
+            break;
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    @Override
+    public CompletionStage<ApiResponse> getBody() {
+        return result;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        CompletableFuture.runAsync(this::expire, CompletableFuture.delayedExecutor(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> items) {
+        if (result.isDone()) {
+            return;
+        }
+        for (ByteBuffer item : items) {
+            String problem = feed(item);
+            if (problem != null) {
+                result.complete(ApiResponse.malformed(problem));
+                subscription.cancel();
+                return;
+            }
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        result.completeExceptionally(throwable);
+    }
+
+    /**
+     * Stop reading if the body is still not done at the deadline.
+     */
+    private void expire() {
+        if (result.completeExceptionally(new HttpTimeoutException("body not read before the deadline"))) {
+            subscription.cancel();
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        if (result.isDone()) {
+            return;
+        }
+        // a number at the very end has nothing after it to finish it
+        if (state == State.LITERAL) {
+            String problem = endLiteral();
+            if (problem != null) {
+                result.complete(ApiResponse.malformed(problem));
+                return;
+            }
+        }
+        if (state != State.DONE) {
+            result.complete(ApiResponse.malformed(state == State.VALUE && depth == 0 ? "empty response" : "unexpected end of response"));
+            return;
+        }
+        result.complete(new ApiResponse(status, url, tunnel, hasTunnel, pickerCount, errorCode, text, null));
+    }
+
+    /**
+     * Feed the next chunk of the body into the decoder.
+     *
+     * @param bytes The bytes.
+     * @return A description of what's wrong if the JSON is invalid, otherwise null.
+     */
+    private String feed(ByteBuffer bytes) {
+        while (bytes.hasRemaining()) {
+            byte b = bytes.get();
+            String problem = switch (state) {
+                case STRING -> string(b);
+                case ESCAPE -> escape(b);
+                case UNICODE -> unicode(b);
+                case LITERAL -> literal(b);
+                default -> structure(b);
+            };
+            if (problem != null) {
+                return problem;
+            }
+        }
+        return null;
+    }
+
+    private String structure(byte b) {
+        if (b == ' ' || b == '\t' || b == '\n' || b == '\r') {
+            return null;
+        }
+        switch (state) {
+            case VALUE, VALUE_OR_END -> {
+                if (b == ']' && state == State.VALUE_OR_END) {
+                    return close(false);
+                }
+                return startValue(b);
+            }
+            case KEY, KEY_OR_END -> {
+                if (b == '}' && state == State.KEY_OR_END) {
+                    return close(true);
+                }
+                if (b != '"') {
+                    return "expected a key";
+                }
+                startString(true);
+                return null;
+            }
+            case COLON -> {
+                if (b != ':') {
+                    return "expected ':'";
+                }
+                state = State.VALUE;
+                return null;
+            }
+            case COMMA_OR_END -> {
+                if (b == ',') {
+                    state = isObject[depth] ? State.KEY : State.VALUE;
+                    return null;
+                }
+                if (b == '}' && isObject[depth]) {
+                    return close(true);
+                }
+                if (b == ']' && !isObject[depth]) {
+                    return close(false);
+                }
+                return "expected ',' or end of " + (isObject[depth] ? "object" : "array");
+            }
+            case DONE -> {
+                return "unexpected data after response";
+            }
+            default -> {
+                return "invalid state";
+            }
+        }
+    }
+
+    private String startValue(byte b) {
+        if (depth == 0 && b != '{') {
+            return "response is not a JSON object";
+        }
+        if (b == '{' || b == '[') {
+            if (depth == MAX_DEPTH) {
+                return "response is nested too deep";
+            }
+            depth++;
+            isObject[depth] = b == '{';
+            keys[depth] = KEY_OTHER;
+            counts[depth] = 0;
+            if (depth == 2 && keys[1] == KEY_TUNNEL && b == '[') {
+                hasTunnel = true;
+            }
+            state = b == '{' ? State.KEY_OR_END : State.VALUE_OR_END;
+            return null;
+        }
+        if (b == '"') {
+            startString(false);
+            return null;
+        }
+        if (b == '-' || (b >= '0' && b <= '9') || b == 't' || b == 'f' || b == 'n') {
+            state = State.LITERAL;
+            length = 0;
+            append(b);
+            return null;
+        }
+        return "unexpected character '" + (char) (b & 0xFF) + "'";
+    }
+
+    private String close(boolean object) {
+        if (!object && depth == 2 && keys[1] == KEY_PICKER) {
+            pickerCount = counts[depth];
+        }
+        depth--;
+        return endValue();
+    }
+
+    /**
+     * Called after any value finishes, to move on to what comes next.
+     *
+     * @return Always null, kept as a String so callers can return it directly.
+     */
+    private String endValue() {
+        if (depth == 0) {
+            state = State.DONE;
+            return null;
+        }
+        counts[depth]++;
+        state = State.COMMA_OR_END;
+        return null;
+    }
+
+    private void startString(boolean key) {
+        readingKey = key;
+        length = 0;
+        highSurrogate = -1;
+        if (key) {
+            // keys are only worth reading where our fields can be
+            capture = depth <= 2;
+        } else {
+            captureKey = targetFor();
+            capture = captureKey != KEY_OTHER;
+        }
+        state = State.STRING;
+    }
+
+    /**
+     * Work out if the string value we're about to read is one we keep.
+     *
+     * @return Which field it belongs to, or KEY_OTHER.
+     */
+    private int targetFor() {
+        if (depth == 1) {
+            return switch (keys[1]) {
+                case KEY_STATUS, KEY_URL, KEY_TEXT, KEY_ERROR -> keys[1];
+                default -> KEY_OTHER;
+            };
+        }
+        if (depth == 2) {
+            if (!isObject[2] && keys[1] == KEY_TUNNEL && counts[2] == 0) {
+                return KEY_TUNNEL;
+            }
+            if (isObject[2] && keys[1] == KEY_ERROR && keys[2] == KEY_CODE) {
+                return KEY_CODE;
+            }
+        }
+        return KEY_OTHER;
+    }
+
+    private String string(byte b) {
+        if (b == '"') {
+            if (readingKey) {
+                keys[depth] = capture ? matchKey() : KEY_OTHER;
+                state = State.COLON;
+                return null;
+            }
+            if (capture) {
+                store(new String(buffer, 0, length, charset));
+            }
+            return endValue();
+        }
+        if (b == '\\') {
+            state = State.ESCAPE;
+            return null;
+        }
+        if ((b & 0xFF) < 0x20) {
+            return "control character in string";
+        }
+        if (capture) {
+            append(b);
+        }
+        return null;
+    }
+
+    private String escape(byte b) {
+        char c;
+        switch (b) {
+            case '"' -> c = '"';
+            case '\\' -> c = '\\';
+            case '/' -> c = '/';
+            case 'b' -> c = '\b';
+            case 'f' -> c = '\f';
+            case 'n' -> c = '\n';
+            case 'r' -> c = '\r';
+            case 't' -> c = '\t';
+            case 'u' -> {
+                unicode = 0;
+                unicodeDigits = 0;
+                state = State.UNICODE;
+                return null;
+            }
+            default -> {
+                return "invalid escape in string";
+            }
+        }
+        if (capture) {
+            appendCodePoint(c);
+        }
+        state = State.STRING;
+        return null;
+    }
+
+    private String unicode(byte b) {
+        int digit = Character.digit(b, 16);
+        if (digit < 0) {
+            return "invalid unicode escape in string";
+        }
+        unicode = (unicode << 4) | digit;
+        if (++unicodeDigits < 4) {
+            return null;
+        }
+        if (capture) {
+            if (Character.isHighSurrogate((char) unicode)) {
+                highSurrogate = unicode;
+            } else if (Character.isLowSurrogate((char) unicode) && highSurrogate >= 0) {
+                appendCodePoint(Character.toCodePoint((char) highSurrogate, (char) unicode));
+                highSurrogate = -1;
+            } else {
+                appendCodePoint(unicode);
+            }
+        }
+        state = State.STRING;
+        return null;
+    }
+
+    private String literal(byte b) {
+        if ((b >= '0' && b <= '9') || (b >= 'a' && b <= 'z') || b == '-' || b == '+' || b == '.' || b == 'E') {
+            if (length > 64) {
+                return "literal is too long";
+            }
+            append(b);
+            return null;
+        }
+        String problem = endLiteral();
+        if (problem != null) {
+            return problem;
+        }
+        // the byte that ended the literal still needs to be handled
+        return structure(b);
+    }
+
+    private String endLiteral() {
+        // checked on the bytes, so numbers and literals don't allocate unless they are invalid
+        if (!isKeyword(TRUE) && !isKeyword(FALSE) && !isKeyword(NULL) && !isNumber()) {
+            return "invalid value '" + new String(buffer, 0, length, StandardCharsets.US_ASCII) + "'";
+        }
+        return endValue();
+    }
+
+    private boolean isKeyword(byte[] keyword) {
+        return Arrays.equals(buffer, 0, length, keyword, 0, keyword.length);
+    }
+
+    /**
+     * Check the buffer against the JSON number grammar: -?(0|[1-9][0-9]*)(\.[0-9]+)?([eE][-+]?[0-9]+)?
+     */
+    private boolean isNumber() {
+        int i = 0;
+        if (i < length && buffer[i] == '-') {
+            i++;
+        }
+        if (i >= length) {
+            return false;
+        }
+        if (buffer[i] == '0') {
+            i++;
+        } else if (buffer[i] >= '1' && buffer[i] <= '9') {
+            i = skipDigits(i);
+        } else {
+            return false;
+        }
+        if (i < length && buffer[i] == '.') {
+            int start = ++i;
+            i = skipDigits(i);
+            if (i == start) {
+                return false;
+            }
+        }
+        if (i < length && (buffer[i] == 'e' || buffer[i] == 'E')) {
+            i++;
+            if (i < length && (buffer[i] == '-' || buffer[i] == '+')) {
+                i++;
+            }
+            int start = i;
+            i = skipDigits(i);
+            if (i == start) {
+                return false;
+            }
+        }
+        return i == length;
+    }
+
+    private int skipDigits(int i) {
+        while (i < length && buffer[i] >= '0' && buffer[i] <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+    private int matchKey() {
+        for (int i = 0; i < KEYS.length; i++) {
+            if (Arrays.equals(buffer, 0, length, KEYS[i], 0, KEYS[i].length)) {
+                return i;
+            }
+        }
+        return KEY_OTHER;
+    }
+
+    private void store(String value) {
+        switch (captureKey) {
+            case KEY_STATUS -> status = value;
+            case KEY_URL -> url = value;
+            case KEY_TEXT -> text = value;
+            case KEY_TUNNEL -> tunnel = value;
+            // older forks send error as a plain string instead of {code}
+            case KEY_ERROR, KEY_CODE -> errorCode = value;
+            default -> {
+            }
+        }
+    }
+
+    private void append(byte b) {
+        if (length == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[length++] = b;
+    }
+
+    private void appendCodePoint(int codePoint) {
+        // escapes are stored in the body's charset, so the string decodes in one go
+        if (charset != StandardCharsets.UTF_8 && codePoint >= 0x80) {
+            for (byte b : Character.toString(codePoint).getBytes(charset)) {
+                append(b);
+            }
+            return;
+        }
+        if (codePoint < 0x80) {
+            append((byte) codePoint);
+        } else if (codePoint < 0x800) {
+            append((byte) (0xC0 | (codePoint >> 6)));
+            append((byte) (0x80 | (codePoint & 0x3F)));
+        } else if (codePoint < 0x10000) {
+            append((byte) (0xE0 | (codePoint >> 12)));
+            append((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+            append((byte) (0x80 | (codePoint & 0x3F)));
+        } else {
+            append((byte) (0xF0 | (codePoint >> 18)));
+            append((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+            append((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+            append((byte) (0x80 | (codePoint & 0x3F)));
+        }
+    }
+}
@@ -0,0 +1,5 @@
+package lol.hyper.cobaltdirectory.requests;
+
+import java.util.HashMap;
+
+public record ApiResults(ApiResponse response, int responseCode, HashMap<String, String> headers, Exception exception, RequestTiming timing) { }
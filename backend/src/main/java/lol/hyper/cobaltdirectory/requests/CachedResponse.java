@@ -0,0 +1,14 @@
+package lol.hyper.cobaltdirectory.requests;
+
+import org.json.JSONObject;
+
+/**
+ * What we remember about a URL between runs.
+ *
+ * @param etag         The ETag the server sent, or null.
+ * @param lastModified The Last-Modified the server sent, or null.
+ * @param lastSeen     When we last got a response for this URL, in millis.
+ * @param facts        What we worked out from the body, so a 304 doesn't need it.
+ */
+public record CachedResponse(String etag, String lastModified, long lastSeen, JSONObject facts) {
+}
@@ -0,0 +1,283 @@
+package lol.hyper.cobaltdirectory.requests;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Sits between HttpClient and a body subscriber, and inflates gzip or deflate bodies as
+ * the chunks arrive so the subscriber only ever sees the plain body. It also counts the
+ * bytes on the wire and after decoding. Bodies with no content-encoding pass straight through.
+ */
+final class DecodingSubscriber<T> implements HttpResponse.BodySubscriber<T> {
+
+    // what we can decode, brotli would need a decoder we don't ship
+    static final String ACCEPT_ENCODING = "gzip, deflate";
+    private static final int CHUNK = 8192;
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final int FHCRC = 2;
+
+    private final HttpResponse.BodySubscriber<T> downstream;
+    private final String encoding;
+    private Inflater inflater;
+    private Flow.Subscription subscription;
+    // gzip header bytes until we have all of them, then null
+    private byte[] gzipHeader;
+    // the first deflate bytes, in case they turn out to be raw deflate instead of zlib
+    private byte[] deflateStart;
+    private boolean produced = false;
+    private volatile long wireBytes = 0;
+    private volatile long bodyBytes = 0;
+
+    private DecodingSubscriber(HttpResponse.BodySubscriber<T> downstream, String encoding) {
+        this.downstream = downstream;
+        this.encoding = encoding;
+        switch (encoding) {
+            case "gzip" -> {
+                inflater = new Inflater(true);
+                gzipHeader = new byte[0];
+            }
+            case "deflate" -> {
+                inflater = new Inflater();
+                deflateStart = new byte[0];
+            }
+            default -> inflater = null;
+        }
+    }
+
+    /**
+     * Wrap a subscriber for a response, based on its content-encoding.
+     *
+     * @param info       The response status and headers.
+     * @param downstream The subscriber that wants the plain body.
+     * @param <T>        The body type.
+     * @return The wrapped subscriber.
+     */
+    static <T> DecodingSubscriber<T> of(HttpResponse.ResponseInfo info, HttpResponse.BodySubscriber<T> downstream) {
+        String encoding = info.headers().firstValue("content-encoding").orElse("identity").trim().toLowerCase(Locale.ROOT);
+        if (encoding.equals("x-gzip")) {
+            encoding = "gzip";
+        }
+        return new DecodingSubscriber<>(downstream, encoding);
+    }
+
+    /**
+     * How the body was encoded.
+     *
+     * @return The content-encoding, or identity.
+     */
+    String encoding() {
+        return encoding;
+    }
+
+    long wireBytes() {
+        return wireBytes;
+    }
+
+    long bodyBytes() {
+        return bodyBytes;
+    }
+
+    @Override
+    public CompletionStage<T> getBody() {
+        return downstream.getBody();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        // every chunk we get turns into one chunk downstream, so demand passes straight through
+        downstream.onSubscribe(subscription);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> items) {
+        long wire = 0;
+        for (ByteBuffer buffer : items) {
+            wire += buffer.remaining();
+        }
+        wireBytes += wire;
+        if (inflater == null) {
+            bodyBytes += wire;
+            downstream.onNext(items);
+            return;
+        }
+        List<ByteBuffer> decoded = new ArrayList<>();
+        try {
+            for (ByteBuffer buffer : items) {
+                byte[] input = new byte[buffer.remaining()];
+                buffer.get(input);
+                inflate(input, decoded);
+            }
+        } catch (IOException exception) {
+            subscription.cancel();
+            finish();
+            downstream.onError(exception);
+            return;
+        }
+        downstream.onNext(decoded);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        finish();
+        downstream.onError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        if (inflater != null && gzipHeader == null) {
+            // pass on anything the inflater still holds before the body ends
+            List<ByteBuffer> decoded = new ArrayList<>();
+            try {
+                drain(decoded);
+            } catch (DataFormatException exception) {
+                finish();
+                downstream.onError(new IOException("Unable to decode " + encoding + " body", exception));
+                return;
+            }
+            if (!decoded.isEmpty()) {
+                downstream.onNext(decoded);
+            }
+        }
+        finish();
+        downstream.onComplete();
+    }
+
+    /**
+     * Inflate one chunk of the body.
+     *
+     * @param input   The bytes off the wire.
+     * @param decoded Where to add the inflated bytes.
+     * @throws IOException If the body isn't valid for its encoding.
+     */
+    private void inflate(byte[] input, List<ByteBuffer> decoded) throws IOException {
+        if (gzipHeader != null) {
+            input = concat(gzipHeader, input);
+            int length = gzipHeaderLength(input);
+            if (length < 0) {
+                // still waiting on the rest of the header
+                gzipHeader = input;
+                return;
+            }
+            gzipHeader = null;
+            input = Arrays.copyOfRange(input, length, input.length);
+        }
+        if (deflateStart != null) {
+            deflateStart = concat(deflateStart, input);
+        }
+        if (inflater.finished()) {
+            // gzip trailer or junk after the end of the stream
+            return;
+        }
+        inflater.setInput(input);
+        try {
+            drain(decoded);
+        } catch (DataFormatException exception) {
+            // "deflate" is supposed to be zlib, but some servers send raw deflate
+            if (deflateStart != null && !produced) {
+                inflater.end();
+                inflater = new Inflater(true);
+                inflater.setInput(deflateStart);
+                deflateStart = null;
+                try {
+                    drain(decoded);
+                    return;
+                } catch (DataFormatException retry) {
+                    throw new IOException("Unable to decode " + encoding + " body", retry);
+                }
+            }
+            throw new IOException("Unable to decode " + encoding + " body", exception);
+        }
+    }
+
+    /**
+     * Read everything the inflater can produce from its current input. The inflater can have
+     * taken all of the input and still hold output, so this keeps going until it gives nothing.
+     *
+     * @param decoded Where to add the inflated bytes.
+     * @throws DataFormatException If the input is not valid.
+     */
+    private void drain(List<ByteBuffer> decoded) throws DataFormatException {
+        while (!inflater.finished()) {
+            byte[] output = new byte[CHUNK];
+            int read = inflater.inflate(output);
+            if (read == 0) {
+                // it needs more input, or a dictionary, which http bodies never have
+                break;
+            }
+            produced = true;
+            // once it has inflated something, it is the right kind of deflate
+            deflateStart = null;
+            bodyBytes += read;
+            decoded.add(ByteBuffer.wrap(output, 0, read));
+        }
+    }
+
+    private void finish() {
+        if (inflater != null) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Work out how long a gzip header is.
+     *
+     * @param bytes The start of the body.
+     * @return The header length, or -1 if more bytes are needed.
+     * @throws IOException If it isn't a gzip header.
+     */
+    private static int gzipHeaderLength(byte[] bytes) throws IOException {
+        if (bytes.length < 10) {
+            return -1;
+        }
+        if (((bytes[0] & 0xff) | ((bytes[1] & 0xff) << 8)) != GZIP_MAGIC || bytes[2] != 8) {
+            throw new IOException("Body is not in gzip format");
+        }
+        int flags = bytes[3] & 0xff;
+        int position = 10;
+        if ((flags & FEXTRA) != 0) {
+            if (bytes.length < position + 2) {
+                return -1;
+            }
+            position += 2 + ((bytes[position] & 0xff) | ((bytes[position + 1] & 0xff) << 8));
+        }
+        for (int flag : new int[]{FNAME, FCOMMENT}) {
+            if ((flags & flag) != 0) {
+                // zero terminated string
+                while (position < bytes.length && bytes[position] != 0) {
+                    position++;
+                }
+                if (position >= bytes.length) {
+                    return -1;
+                }
+                position++;
+            }
+        }
+        if ((flags & FHCRC) != 0) {
+            position += 2;
+        }
+        return position <= bytes.length ? position : -1;
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        if (first.length == 0) {
+            return second;
+        }
+        byte[] joined = new byte[first.length + second.length];
+        System.arraycopy(first, 0, joined, 0, first.length);
+        System.arraycopy(second, 0, joined, first.length, second.length);
+        return joined;
+    }
+}
@@ -0,0 +1,117 @@
+package lol.hyper.cobaltdirectory.requests;
+
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Scans a frontend's HTML as it streams in, looking for the cobalt application-name tag.
+ * It stops reading as soon as the tag is found, once the head ends without it, or when
+ * the byte cap is hit, so we never download the whole page just to check one tag. A page
+ * that is still not read by the deadline fails with a timeout.
+ */
+public class FrontEndScanner implements HttpResponse.BodySubscriber<Boolean> {
+
+    private static final Pattern TITLE_PATTERN = Pattern.compile("<meta\\s+(?:[^>]*?\\s)?name=[\"']application-name[\"']\\s+(?:[^>]*?\\s)?content=[\"']cobalt[\"'][^>]*>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern HEAD_END = Pattern.compile("</head\\s*>", Pattern.CASE_INSENSITIVE);
+    // the tag has to be in <head>, if we read this much and haven't seen it, it isn't there
+    private static final int MAX_BYTES = 256 * 1024;
+    // how much of the previous chunk to keep, so a tag split between chunks still matches
+    private static final int CARRY = 1024;
+
+    private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+    private final StringBuilder window = new StringBuilder();
+    private final boolean scan;
+    private final long deadline;
+    private Flow.Subscription subscription;
+    private long bytesRead = 0;
+
+    /**
+     * Create a scanner.
+     *
+     * @param scan     false to skip the body entirely, for responses that can't be valid.
+     * @param deadline System.nanoTime() by which the body has to be read.
+     */
+    public FrontEndScanner(boolean scan, long deadline) {
+        this.scan = scan;
+        this.deadline = deadline;
+    }
+
+    @Override
+    public CompletionStage<Boolean> getBody() {
+        return result;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        if (!scan) {
+            finish(false);
+            return;
+        }
+        CompletableFuture.runAsync(this::expire, CompletableFuture.delayedExecutor(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> items) {
+        if (result.isDone()) {
+            return;
+        }
+        for (ByteBuffer buffer : items) {
+            bytesRead += buffer.remaining();
+            // the tag is plain ASCII, so reading bytes as latin-1 is enough to match it
+            // no matter how the page is encoded, and a split multibyte char can't break it
+            window.append(StandardCharsets.ISO_8859_1.decode(buffer));
+        }
+        if (TITLE_PATTERN.matcher(window).find()) {
+            finish(true);
+            return;
+        }
+        if (HEAD_END.matcher(window).find() || bytesRead >= MAX_BYTES) {
+            finish(false);
+            return;
+        }
+        if (window.length() > CARRY) {
+            window.delete(0, window.length() - CARRY);
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        result.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        finish(false);
+    }
+
+    /**
+     * Stop reading if the page is still not scanned at the deadline.
+     */
+    private void expire() {
+        if (result.completeExceptionally(new HttpTimeoutException("body not read before the deadline"))) {
+            subscription.cancel();
+        }
+    }
+
+    /**
+     * Complete the result and stop reading the body.
+     *
+     * @param valid If the tag was found.
+     */
+    private void finish(boolean valid) {
+        if (result.complete(valid)) {
+            subscription.cancel();
+        }
+    }
+}
@@ -0,0 +1,482 @@
+package lol.hyper.cobaltdirectory.requests;
+
+import lol.hyper.cobaltdirectory.tests.ContentLengthHeader;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Transport backed by long-lived {@link HttpClient}s, one for direct requests and one per proxy.
+ * Each client keeps idle connections open per host, negotiates HTTP/2 when the instance supports
+ * it, and shares one SSL context so new connections can resume TLS sessions instead of doing a
+ * full handshake.
+ */
+public class HttpTransport implements Transport {
+
+    private static final Logger logger = LogManager.getLogger(HttpTransport.class);
+    private static final Duration CONNECT_TIMEOUT = TimeoutPolicy.DEFAULT;
+    // how much of a tunnel to download, enough to measure speed without pulling whole videos
+    private static final long TUNNEL_SAMPLE = 1024 * 1024;
+
+    // async callbacks only parse and hand off, a few threads are enough for every client
+    private static final ExecutorService CALLBACKS = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    private final ProxyRoute direct;
+    private final ProxyPool proxyPool;
+    private final String userAgent;
+
+    public HttpTransport(String userAgent, ProxyPool proxyPool) {
+        this.userAgent = userAgent;
+        this.proxyPool = proxyPool;
+        this.direct = new ProxyRoute(null, newClient(HttpClient.Builder.NO_PROXY));
+    }
+
+    /**
+     * Build a client with the shared settings.
+     *
+     * @param proxySelector Where the client sends its requests through.
+     * @return The client.
+     */
+    static HttpClient newClient(ProxySelector proxySelector) {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .proxy(proxySelector)
+                .executor(CALLBACKS)
+                .build();
+    }
+
+    @Override
+    public ApiResults sendPost(JSONObject body, String url, String authorization, Duration timeout) {
+        ProxyRoute route = route(url);
+        try {
+            RequestTimer timer = new RequestTimer();
+            HttpResponse<ApiResponse> response = route.client().send(postRequest(body, url, authorization, timeout), timer.wrap(apiHandler(timeout)));
+            return postResults(response, timer.timing());
+        } catch (Exception exception) {
+            restoreInterrupt(exception);
+            logger.error("Unable to send post to {}", url, exception);
+            return new ApiResults(null, -1, new HashMap<>(), exception, null);
+        } finally {
+            route.release();
+        }
+    }
+
+    @Override
+    public CompletableFuture<ApiResults> sendPostAsync(JSONObject body, String url, String authorization, Duration timeout) {
+        HttpRequest request;
+        try {
+            request = postRequest(body, url, authorization, timeout);
+        } catch (IllegalArgumentException exception) {
+            logger.error("Unable to send post to {}", url, exception);
+            return CompletableFuture.completedFuture(new ApiResults(null, -1, new HashMap<>(), exception, null));
+        }
+        ProxyRoute route = route(url);
+        RequestTimer timer = new RequestTimer();
+        CompletableFuture<HttpResponse<ApiResponse>> sent = route.client().sendAsync(request, timer.wrap(apiHandler(timeout)));
+        return cancels(sent, sent
+                .whenComplete((response, throwable) -> route.release())
+                .thenApply(response -> postResults(response, timer.timing()))
+                .exceptionally(throwable -> {
+                    Exception exception = unwrap(throwable);
+                    logger.error("Unable to send post to {}", url, exception);
+                    return new ApiResults(null, -1, new HashMap<>(), exception, null);
+                }));
+    }
+
+    @Override
+    public RequestResults requestJSON(String url, CachedResponse cached, Duration timeout) {
+        String rawJSON;
+        int responseCode;
+        HashMap<String, String> headers = new HashMap<>();
+        RequestTimer timer = new RequestTimer();
+        ProxyRoute route = route(url);
+        try {
+            HttpResponse<String> response = route.client().send(conditional(newRequest(url, timeout), cached).GET().build(), timer.wrap(HttpResponse.BodyHandlers.ofString()));
+            responseCode = response.statusCode();
+            copyHeaders(response.headers(), headers);
+            rawJSON = response.body();
+        } catch (Exception exception) {
+            restoreInterrupt(exception);
+            logger.error("Unable to connect to or read from {}", url, exception);
+            return new RequestResults(null, -1, headers, exception, null);
+        } finally {
+            route.release();
+        }
+        RequestTiming timing = timer.timing();
+        if (responseCode == 304) {
+            return new RequestResults(null, responseCode, headers, null, timing);
+        }
+        if (rawJSON == null || rawJSON.isEmpty()) {
+            logger.error("Read JSON from {} returned an empty string!", url);
+            return new RequestResults(null, responseCode, headers, null, timing);
+        }
+        return new RequestResults(rawJSON, responseCode, headers, null, timing);
+    }
+
+    @Override
+    public RequestResults testFrontEnd(String url, CachedResponse cached, Duration timeout) {
+        ProxyRoute route = route(url);
+        try {
+            RequestTimer timer = new RequestTimer();
+            HttpResponse<Boolean> response = route.client().send(conditional(newRequest(url, timeout), cached).GET().build(), timer.wrap(frontEndHandler(timeout)));
+            return frontEndResults(response, timer.timing());
+        } catch (Exception exception) {
+            restoreInterrupt(exception);
+            logger.error("Unable to read URL {}", url, exception);
+            return new RequestResults(null, -1, null, exception, null);
+        } finally {
+            route.release();
+        }
+    }
+
+    @Override
+    public CompletableFuture<RequestResults> testFrontEndAsync(String url, CachedResponse cached, Duration timeout) {
+        HttpRequest request;
+        try {
+            request = conditional(newRequest(url, timeout), cached).GET().build();
+        } catch (IllegalArgumentException exception) {
+            logger.error("Unable to read URL {}", url, exception);
+            return CompletableFuture.completedFuture(new RequestResults(null, -1, null, exception, null));
+        }
+        ProxyRoute route = route(url);
+        RequestTimer timer = new RequestTimer();
+        CompletableFuture<HttpResponse<Boolean>> sent = route.client().sendAsync(request, timer.wrap(frontEndHandler(timeout)));
+        return cancels(sent, sent
+                .whenComplete((response, throwable) -> route.release())
+                .thenApply(response -> frontEndResults(response, timer.timing()))
+                .exceptionally(throwable -> {
+                    Exception exception = unwrap(throwable);
+                    logger.error("Unable to read URL {}", url, exception);
+                    return new RequestResults(null, -1, null, exception, null);
+                }));
+    }
+
+    @Override
+    public TunnelSample sampleTunnel(String url, Duration timeout) {
+        ProxyRoute route = route(url);
+        try {
+            long start = System.nanoTime();
+            return route.client().send(rangeRequest(url, timeout), info -> new TunnelSampler(info, start, TUNNEL_SAMPLE, timeout)).body();
+        } catch (Exception exception) {
+            restoreInterrupt(exception);
+            logger.error("Unable to read tunnel {}", url, exception);
+            return null;
+        } finally {
+            route.release();
+        }
+    }
+
+    @Override
+    public CompletableFuture<TunnelSample> sampleTunnelAsync(String url, Duration timeout) {
+        HttpRequest request;
+        try {
+            request = rangeRequest(url, timeout);
+        } catch (IllegalArgumentException exception) {
+            logger.error("Unable to read tunnel {}", url, exception);
+            return CompletableFuture.completedFuture(null);
+        }
+        ProxyRoute route = route(url);
+        long start = System.nanoTime();
+        CompletableFuture<HttpResponse<TunnelSample>> sent = route.client().sendAsync(request, info -> new TunnelSampler(info, start, TUNNEL_SAMPLE, timeout));
+        return cancels(sent, sent
+                .whenComplete((response, throwable) -> route.release())
+                .thenApply(HttpResponse::body)
+                .exceptionally(throwable -> {
+                    logger.error("Unable to read tunnel {}", url, unwrap(throwable));
+                    return null;
+                }));
+    }
+
+    /**
+     * Make the body handler for a cobalt API response. The request timeout stops at the
+     * headers, so the decoder gets the same deadline for the body.
+     *
+     * @param timeout How long the whole request can take.
+     * @return The handler.
+     */
+    private static HttpResponse.BodyHandler<ApiResponse> apiHandler(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        return info -> new ApiResponseDecoder(deadline, ApiResponseDecoder.charsetOf(info));
+    }
+
+    /**
+     * Make the body handler for a frontend, with the same deadline for the body as {@link #apiHandler}.
+     *
+     * @param timeout How long the whole request can take.
+     * @return The handler.
+     */
+    private static HttpResponse.BodyHandler<Boolean> frontEndHandler(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        // only scan the body of a 200, anything else is a fail and gets dropped right away
+        return info -> new FrontEndScanner(info.statusCode() == 200, deadline);
+    }
+
+    /**
+     * Futures made from the one sendAsync returns can't cancel the request, only that one can.
+     * Pass a cancel of the result on to it, so the exchange is dropped instead of left running.
+     *
+     * @param sent   The future from sendAsync.
+     * @param result The future given to the caller.
+     * @param <T>    The result type.
+     * @return The result future.
+     */
+    private static <T> CompletableFuture<T> cancels(CompletableFuture<?> sent, CompletableFuture<T> result) {
+        result.whenComplete((value, throwable) -> {
+            if (result.isCancelled()) {
+                sent.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Pick the way out for a request and mark it as in use. Callers have to release it.
+     *
+     * @param url The url being requested.
+     * @return The proxy to use, or the direct route if there are no healthy proxies.
+     */
+    private ProxyRoute route(String url) {
+        String host;
+        try {
+            host = URI.create(url).getHost();
+        } catch (IllegalArgumentException exception) {
+            // the request itself will fail on this url, any route is fine
+            host = url;
+        }
+        ProxyRoute route = proxyPool.select(host);
+        if (route == null) {
+            route = direct;
+        }
+        route.acquire();
+        return route;
+    }
+
+    /**
+     * Start building a request with the shared defaults.
+     *
+     * @param url     The url to request.
+     * @param timeout How long to wait for the response.
+     * @return The request builder.
+     */
+    private HttpRequest.Builder newRequest(String url, Duration timeout) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .header("User-Agent", userAgent)
+                .header("Accept-Encoding", DecodingSubscriber.ACCEPT_ENCODING)
+                .timeout(timeout);
+    }
+
+    /**
+     * Add the validators from a cached response, so the server can answer 304.
+     *
+     * @param request The request builder.
+     * @param cached  The cached response, or null.
+     * @return The request builder.
+     */
+    private static HttpRequest.Builder conditional(HttpRequest.Builder request, CachedResponse cached) {
+        if (cached == null) {
+            return request;
+        }
+        if (cached.etag() != null) {
+            request.header("If-None-Match", cached.etag());
+        }
+        if (cached.lastModified() != null) {
+            request.header("If-Modified-Since", cached.lastModified());
+        }
+        return request;
+    }
+
+    /**
+     * Build the POST request sent to a cobalt API.
+     *
+     * @param body          The body to send.
+     * @param url           The url to send to.
+     * @param authorization The API key to use, or null if there is none.
+     * @param timeout       How long to wait for the response.
+     * @return The request.
+     */
+    private HttpRequest postRequest(JSONObject body, String url, String authorization, Duration timeout) {
+        HttpRequest.Builder request = newRequest(url, timeout)
+                .header("Content-Type", "application/json")
+                .header("Accept", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()));
+        if (authorization != null) {
+            request.header("Authorization", "Api-Key " + authorization);
+        }
+        return request.build();
+    }
+
+    /**
+     * Build a GET request for only the first part of a file. Servers that ignore
+     * the range send the whole thing, the sampler stops reading it early anyway.
+     *
+     * @param url     The url to request.
+     * @param timeout How long to wait for the response headers.
+     * @return The request.
+     */
+    private HttpRequest rangeRequest(String url, Duration timeout) {
+        // a range of a compressed file means nothing, ask for the file as it is
+        return newRequest(url, timeout)
+                .setHeader("Accept-Encoding", "identity")
+                .header("Range", "bytes=0-" + (TUNNEL_SAMPLE - 1))
+                .GET()
+                .build();
+    }
+
+    /**
+     * Turn the response from a cobalt API into ApiResults.
+     *
+     * @param response The response.
+     * @param timing   How long the request took.
+     * @return The ApiResults.
+     */
+    private static ApiResults postResults(HttpResponse<ApiResponse> response, RequestTiming timing) {
+        HashMap<String, String> headers = new HashMap<>();
+        copyHeaders(response.headers(), headers);
+        return new ApiResults(response.body(), response.statusCode(), headers, null, timing);
+    }
+
+    /**
+     * Turn the result of scanning a frontend's HTML into RequestResults.
+     *
+     * @param response The response.
+     * @param timing   How long the request took.
+     * @return The RequestResults, with "valid" as the content if it matched.
+     */
+    private static RequestResults frontEndResults(HttpResponse<Boolean> response, RequestTiming timing) {
+        int responseCode = response.statusCode();
+        HashMap<String, String> headers = new HashMap<>();
+        copyHeaders(response.headers(), headers);
+        if (responseCode == 304) {
+            return new RequestResults(null, responseCode, headers, null, timing);
+        }
+        if (responseCode != 200) {
+            return new RequestResults("Returned non HTTP 200 code: " + responseCode, responseCode, headers, null, timing);
+        }
+        if (response.body()) {
+            return new RequestResults("valid", responseCode, headers, null, timing);
+        } else {
+            return new RequestResults("no", responseCode, headers, null, timing);
+        }
+    }
+
+    /**
+     * Copy response headers into a map with lowercase keys.
+     *
+     * @param source The response headers.
+     * @param target The map to copy into.
+     */
+    private static void copyHeaders(HttpHeaders source, Map<String, String> target) {
+        for (Map.Entry<String, List<String>> entry : source.map().entrySet()) {
+            target.put(entry.getKey().toLowerCase(Locale.ROOT), String.join(", ", entry.getValue()));
+        }
+    }
+
+    /**
+     * HttpClient.send throws InterruptedException, make sure the thread keeps its flag.
+     *
+     * @param exception The exception that was thrown.
+     */
+    private static void restoreInterrupt(Exception exception) {
+        if (exception instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get the real exception out of a failed future.
+     *
+     * @param throwable What the future failed with.
+     * @return The underlying exception.
+     */
+    private static Exception unwrap(Throwable throwable) {
+        Throwable cause = throwable;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof Exception exception) {
+            return exception;
+        }
+        return new CompletionException(cause);
+    }
+
+    /**
+     * Check headers for content-length or estimated-content-length. A ranged response's
+     * content-length is only the size of the range, so the full size from content-range
+     * is used when there is one.
+     *
+     * @param headers The response headers.
+     * @return A Headers record with the header name and its value, or null if not present.
+     */
+    static ContentLengthHeader extractLength(HttpHeaders headers) {
+        Optional<String> contentRange = headers.firstValue("content-range");
+        if (contentRange.isPresent()) {
+            // bytes 0-1023/5000000, the total can be * if the server doesn't know it
+            String range = contentRange.get();
+            int slash = range.lastIndexOf('/');
+            if (slash != -1) {
+                try {
+                    return new ContentLengthHeader("content-range", Long.parseLong(range.substring(slash + 1).trim()));
+                } catch (NumberFormatException ignored) {
+                    // fall back to the other headers
+                }
+            }
+        }
+        Optional<String> contentLength = headers.firstValue("content-length");
+        Optional<String> estimatedLength = headers.firstValue("estimated-content-length");
+
+        long contentSize = -1;
+        long estimatedSize = -1;
+
+        if (contentLength.isPresent()) {
+            try {
+                contentSize = Long.parseLong(contentLength.get());
+            } catch (NumberFormatException exception) {
+                logger.error("Unable to parse content-length {}", contentLength.get(), exception);
+                return null;
+            }
+        }
+
+        if (estimatedLength.isPresent()) {
+            try {
+                estimatedSize = Long.parseLong(estimatedLength.get());
+            } catch (NumberFormatException exception) {
+                logger.error("Unable to parse estimated-content-length {}", estimatedLength.get(), exception);
+                return null;
+            }
+        }
+
+        boolean contentValid = contentSize >= 0;
+        boolean estimatedValid = estimatedSize >= 0;
+
+        if (contentValid && estimatedValid) {
+            return (contentSize >= estimatedSize)
+                    ? new ContentLengthHeader("content-length", contentSize)
+                    : new ContentLengthHeader("estimated-content-length", estimatedSize);
+        } else if (contentValid) {
+            return new ContentLengthHeader("content-length", contentSize);
+        } else if (estimatedValid) {
+            return new ContentLengthHeader("estimated-content-length", estimatedSize);
+        }
+
+        return null;
+    }
+}
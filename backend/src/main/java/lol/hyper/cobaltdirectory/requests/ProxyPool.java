@@ -0,0 +1,172 @@
+package lol.hyper.cobaltdirectory.requests;
+
+import lol.hyper.cobaltdirectory.utils.ProxyInfo;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spreads requests over the proxies in proxy.json. A background task checks every proxy
+ * on an interval, and proxies that fail the check are skipped until they pass again.
+ */
+public class ProxyPool {
+
+    private static final long CHECK_INTERVAL = TimeUnit.SECONDS.toMillis(60);
+    private static final Duration CHECK_TIMEOUT = Duration.ofSeconds(10);
+
+    private final Logger logger = LogManager.getLogger(this);
+    private final List<ProxyRoute> routes = new ArrayList<>();
+    private final Selection selection;
+    private final String healthCheckUrl;
+    private final String userAgent;
+    private ScheduledExecutorService healthChecks;
+
+    /**
+     * How a proxy is picked for a request.
+     */
+    public enum Selection {
+        // the proxy with the fewest requests in flight, then the lowest latency
+        LEAST_LOADED,
+        // the same proxy for a host every time, keeps connections warm and a host seeing one IP
+        STICKY;
+
+        /**
+         * Get a selection from the "selection" value in proxy.json.
+         *
+         * @param input The value.
+         * @return The selection, or null if it does not exist.
+         */
+        public static Selection fromString(String input) {
+            String name = input.trim().toUpperCase(Locale.ROOT).replace("-", "_");
+            for (Selection selection : values()) {
+                if (selection.name().equals(name)) {
+                    return selection;
+                }
+            }
+            return null;
+        }
+    }
+
+    public ProxyPool(List<ProxyInfo> proxies, Selection selection, String healthCheckUrl, String userAgent) {
+        this.selection = selection;
+        this.healthCheckUrl = healthCheckUrl;
+        this.userAgent = userAgent;
+        for (ProxyInfo proxy : proxies) {
+            ProxySelector selector = ProxySelector.of(new InetSocketAddress(proxy.host(), proxy.port()));
+            routes.add(new ProxyRoute(proxy, HttpTransport.newClient(selector)));
+        }
+    }
+
+    /**
+     * Check every proxy once, then keep checking them in the background.
+     */
+    public void start() {
+        if (routes.isEmpty()) {
+            return;
+        }
+        logger.info("Using {} proxies, selection={}", routes.size(), selection);
+        checkAll();
+        healthChecks = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "proxy-health");
+            thread.setDaemon(true);
+            return thread;
+        });
+        healthChecks.scheduleWithFixedDelay(this::checkAll, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        if (healthChecks != null) {
+            healthChecks.shutdownNow();
+        }
+    }
+
+    public boolean isEmpty() {
+        return routes.isEmpty();
+    }
+
+    /**
+     * Pick a proxy for a request.
+     *
+     * @param host The host the request is going to.
+     * @return The route, or null if there are no healthy proxies.
+     */
+    ProxyRoute select(String host) {
+        List<ProxyRoute> healthy = new ArrayList<>(routes.size());
+        for (ProxyRoute route : routes) {
+            if (route.isHealthy()) {
+                healthy.add(route);
+            }
+        }
+        if (healthy.isEmpty()) {
+            return null;
+        }
+        if (selection == Selection.STICKY) {
+            // rendezvous hashing, a host only moves if its proxy goes down
+            return healthy.stream().max(Comparator.comparingInt(route -> mix((host + "|" + route).hashCode()))).orElse(null);
+        }
+        return healthy.stream()
+                .min(Comparator.comparingInt(ProxyRoute::inFlight).thenComparingLong(route -> route.latency() < 0 ? Long.MAX_VALUE : route.latency()))
+                .orElse(null);
+    }
+
+    /**
+     * Send a request through each proxy and mark the ones that don't answer.
+     */
+    private void checkAll() {
+        List<CompletableFuture<Void>> checks = new ArrayList<>();
+        for (ProxyRoute route : routes) {
+            checks.add(check(route));
+        }
+        CompletableFuture.allOf(checks.toArray(CompletableFuture<?>[]::new)).join();
+        long healthy = routes.stream().filter(ProxyRoute::isHealthy).count();
+        if (healthy == 0) {
+            logger.warn("No proxies passed the health check, requests will go out directly");
+        }
+    }
+
+    private CompletableFuture<Void> check(ProxyRoute route) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(healthCheckUrl))
+                .header("User-Agent", userAgent)
+                .timeout(CHECK_TIMEOUT)
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .build();
+        long start = System.nanoTime();
+        return route.client().sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .orTimeout(CHECK_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)
+                .handle((response, throwable) -> {
+                    long time = TimeUnit.MILLISECONDS.convert(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    // any answer means the proxy passed the request on, 5xx from the proxy itself doesn't
+                    boolean healthy = throwable == null && response.statusCode() < 500;
+                    if (healthy != route.isHealthy()) {
+                        logger.warn("Proxy {} is now {}", route, healthy ? "healthy" : "down");
+                    }
+                    route.checked(healthy, time);
+                    logger.debug("Proxy {} check healthy={}, time={}ms, latency={}ms", route, healthy, time, route.latency());
+                    return null;
+                });
+    }
+
+    /**
+     * String hashes of similar keys are close together, spread them out.
+     */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+}
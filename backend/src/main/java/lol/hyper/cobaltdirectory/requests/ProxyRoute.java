@@ -0,0 +1,77 @@
+package lol.hyper.cobaltdirectory.requests;
+
+import lol.hyper.cobaltdirectory.utils.ProxyInfo;
+
+import java.net.http.HttpClient;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One way out to the internet: a proxy, or a direct connection if proxy is null.
+ * Each route has its own client so connections are pooled per proxy.
+ */
+final class ProxyRoute {
+
+    private final ProxyInfo proxy;
+    private final HttpClient client;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean healthy = true;
+    private volatile long latency = -1;
+
+    ProxyRoute(ProxyInfo proxy, HttpClient client) {
+        this.proxy = proxy;
+        this.client = client;
+    }
+
+    ProxyInfo proxy() {
+        return proxy;
+    }
+
+    HttpClient client() {
+        return client;
+    }
+
+    /**
+     * Mark a request as started on this route.
+     */
+    void acquire() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Mark a request as finished on this route.
+     */
+    void release() {
+        inFlight.decrementAndGet();
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    boolean isHealthy() {
+        return healthy;
+    }
+
+    long latency() {
+        return latency;
+    }
+
+    /**
+     * Record the result of a health check.
+     *
+     * @param healthy If the proxy answered.
+     * @param sample  How long it took, in millis.
+     */
+    void checked(boolean healthy, long sample) {
+        this.healthy = healthy;
+        if (healthy) {
+            // smooth it out so one slow check doesn't move all traffic away
+            latency = latency < 0 ? sample : (latency * 3 + sample) / 4;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return proxy == null ? "direct" : proxy.host() + ":" + proxy.port();
+    }
+}
@@ -2,4 +2,4 @@ package lol.hyper.cobaltdirectory.requests;
 
 import java.util.HashMap;
 
-public record RequestResults(String responseContent, int responseCode, HashMap<String, String> headers, Exception exception) { }
\ No newline at end of file
+public record RequestResults(String responseContent, int responseCode, HashMap<String, String> headers, Exception exception, RequestTiming timing) { }
\ No newline at end of file
@@ -0,0 +1,59 @@
+package lol.hyper.cobaltdirectory.requests;
+
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times one request through HttpClient. The body handler is called the moment the headers
+ * arrive, and the body subscriber finishes when the last byte is read, so wrapping both
+ * splits the request into time-to-first-byte and transfer. The body also goes through a
+ * {@link DecodingSubscriber}, which undoes any compression and counts the bytes.
+ */
+class RequestTimer {
+
+    private final long start = System.nanoTime();
+    private volatile long headers = -1;
+    private volatile long done = -1;
+    private volatile DecodingSubscriber<?> decoder;
+
+    /**
+     * Wrap a body handler so it records when the headers and body arrive, and
+     * gets the body decompressed.
+     *
+     * @param handler The handler.
+     * @param <T>     The body type.
+     * @return The wrapped handler.
+     */
+    <T> HttpResponse.BodyHandler<T> wrap(HttpResponse.BodyHandler<T> handler) {
+        return info -> {
+            headers = System.nanoTime();
+            HttpResponse.BodySubscriber<T> timed = HttpResponse.BodySubscribers.mapping(handler.apply(info), body -> {
+                done = System.nanoTime();
+                return body;
+            });
+            DecodingSubscriber<T> decoding = DecodingSubscriber.of(info, timed);
+            decoder = decoding;
+            return decoding;
+        };
+    }
+
+    /**
+     * Get the timing once the response is complete.
+     *
+     * @return The timing.
+     */
+    RequestTiming timing() {
+        long end = done >= 0 ? done : System.nanoTime();
+        DecodingSubscriber<?> decoding = decoder;
+        long received = decoding == null ? -1 : decoding.wireBytes();
+        long decoded = decoding == null ? -1 : decoding.bodyBytes();
+        if (headers < 0) {
+            return RequestTiming.ofRequest(toMillis(end - start), -1, received, decoded);
+        }
+        return RequestTiming.ofRequest(toMillis(headers - start), toMillis(end - headers), received, decoded);
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.MILLISECONDS.convert(nanos, TimeUnit.NANOSECONDS);
+    }
+}
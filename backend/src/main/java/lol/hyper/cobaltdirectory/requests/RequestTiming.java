@@ -0,0 +1,57 @@
+package lol.hyper.cobaltdirectory.requests;
+
+import org.json.JSONObject;
+
+/**
+ * How long each phase of a request took, in milliseconds. A phase is -1 when it did not
+ * happen, like the transfer of a request that failed before the body. HttpClient doesn't
+ * expose DNS, connecting or the TLS handshake, so those are part of the ttfb of a request
+ * that opened a new connection.
+ *
+ * @param ttfb     From sending the request to the response headers.
+ * @param transfer Reading the body.
+ * @param total    The whole request.
+ * @param received Bytes of body on the wire, before decompression.
+ * @param decoded  Bytes of body after decompression.
+ */
+public record RequestTiming(long ttfb, long transfer, long total, long received, long decoded) {
+
+    /**
+     * Timing for a request.
+     *
+     * @param ttfb     From sending the request to the response headers.
+     * @param transfer Reading the body.
+     * @param received Bytes of body on the wire.
+     * @param decoded  Bytes of body after decompression.
+     * @return The timing.
+     */
+    public static RequestTiming ofRequest(long ttfb, long transfer, long received, long decoded) {
+        return new RequestTiming(ttfb, transfer, ttfb + Math.max(0, transfer), received, decoded);
+    }
+
+    /**
+     * Read a timing written by toJSON. Missing phases come back as -1.
+     *
+     * @param json The JSON.
+     * @return The timing.
+     */
+    public static RequestTiming fromJSON(JSONObject json) {
+        return new RequestTiming(json.optLong("ttfb", -1), json.optLong("transfer", -1), json.optLong("total", -1), json.optLong("received", -1), json.optLong("decoded", -1));
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        putPhase(json, "ttfb", ttfb);
+        putPhase(json, "transfer", transfer);
+        putPhase(json, "total", total);
+        putPhase(json, "received", received);
+        putPhase(json, "decoded", decoded);
+        return json;
+    }
+
+    private static void putPhase(JSONObject json, String phase, long value) {
+        if (value >= 0) {
+            json.put(phase, value);
+        }
+    }
+}
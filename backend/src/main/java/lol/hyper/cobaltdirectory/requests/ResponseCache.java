@@ -0,0 +1,116 @@
+package lol.hyper.cobaltdirectory.requests;
+
+import lol.hyper.cobaltdirectory.utils.FileUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps ETag/Last-Modified validators for API and frontend URLs across runs, along with
+ * what we learned from the body last time. Requests send them back, and if the server
+ * says 304 we reuse the facts instead of downloading and parsing the body again.
+ */
+public class ResponseCache {
+
+    // forget URLs we haven't heard from in a while, like removed instances
+    private static final long MAX_AGE = TimeUnit.DAYS.toMillis(30);
+
+    private final Logger logger = LogManager.getLogger(this);
+    private final File file;
+    private final Map<String, CachedResponse> entries = new ConcurrentHashMap<>();
+
+    public ResponseCache(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Load the cache from disk. A missing or broken file just means an empty cache.
+     */
+    public void load() {
+        if (!file.exists()) {
+            logger.info("No response cache at {}, starting fresh", file.getAbsolutePath());
+            return;
+        }
+        String contents = FileUtil.readFile(file);
+        if (contents == null) {
+            return;
+        }
+        JSONObject json;
+        try {
+            json = new JSONObject(contents);
+        } catch (JSONException exception) {
+            logger.warn("Response cache {} is invalid, starting fresh", file.getAbsolutePath(), exception);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (String url : json.keySet()) {
+            JSONObject entry = json.getJSONObject(url);
+            long lastSeen = entry.optLong("lastSeen", 0);
+            if (now - lastSeen > MAX_AGE) {
+                continue;
+            }
+            entries.put(url, new CachedResponse(entry.optString("etag", null), entry.optString("lastModified", null), lastSeen, entry.optJSONObject("facts", new JSONObject())));
+        }
+        logger.info("Loaded {} cached responses", entries.size());
+    }
+
+    /**
+     * Save the cache to disk.
+     */
+    public void save() {
+        JSONObject json = new JSONObject();
+        for (Map.Entry<String, CachedResponse> entry : entries.entrySet()) {
+            CachedResponse cached = entry.getValue();
+            JSONObject object = new JSONObject();
+            object.put("etag", cached.etag());
+            object.put("lastModified", cached.lastModified());
+            object.put("lastSeen", cached.lastSeen());
+            object.put("facts", cached.facts());
+            json.put(entry.getKey(), object);
+        }
+        FileUtil.writeFile(json.toString(), file);
+    }
+
+    /**
+     * Get what we know about a URL.
+     *
+     * @param url The URL.
+     * @return The cached response, or null if there is none.
+     */
+    public CachedResponse get(String url) {
+        return entries.get(url);
+    }
+
+    /**
+     * Remember a response. If the server sent no validators there is nothing to send back
+     * next time, so the URL is dropped instead.
+     *
+     * @param url     The URL.
+     * @param headers The response headers, with lowercase keys.
+     * @param facts   What we worked out from the body.
+     */
+    public void put(String url, Map<String, String> headers, JSONObject facts) {
+        String etag = headers == null ? null : headers.get("etag");
+        String lastModified = headers == null ? null : headers.get("last-modified");
+        if (etag == null && lastModified == null) {
+            entries.remove(url);
+            return;
+        }
+        entries.put(url, new CachedResponse(etag, lastModified, System.currentTimeMillis(), facts));
+    }
+
+    /**
+     * Mark a cached response as still valid, after the server answered 304.
+     *
+     * @param url The URL.
+     */
+    public void touch(String url) {
+        entries.computeIfPresent(url, (key, cached) -> new CachedResponse(cached.etag(), cached.lastModified(), System.currentTimeMillis(), cached.facts()));
+    }
+}
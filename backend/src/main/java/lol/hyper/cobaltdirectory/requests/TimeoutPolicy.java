@@ -0,0 +1,160 @@
+package lol.hyper.cobaltdirectory.requests;
+
+import lol.hyper.cobaltdirectory.utils.FileUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Works out how long to wait for a response from what each host did before. Every request
+ * records how long it took to get the response headers, per host and per kind of request
+ * (a service, "info", "frontend" or "tunnel"). The timeout is a few times the 95th percentile
+ * of that, kept between a floor and a ceiling. Samples are saved so the next run starts
+ * with them.
+ */
+public class TimeoutPolicy {
+
+    public static final Duration DEFAULT = Duration.ofSeconds(30);
+    private static final long FLOOR = 5_000;
+    private static final long CEILING = DEFAULT.toMillis();
+    // how many samples to keep per host and kind, older ones fall off
+    private static final int WINDOW = 50;
+    // below this, a percentile is just noise
+    private static final int MIN_SAMPLES = 5;
+    private static final double PERCENTILE = 0.95;
+    private static final int MULTIPLIER = 3;
+
+    private final Logger logger = LogManager.getLogger(this);
+    private final File file;
+    private final Map<String, Map<String, Samples>> hosts = new ConcurrentHashMap<>();
+
+    public TimeoutPolicy(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Load the samples from disk. A missing or broken file just means no history.
+     */
+    public void load() {
+        if (!file.exists()) {
+            logger.info("No latency history at {}, using default timeouts", file.getAbsolutePath());
+            return;
+        }
+        String contents = FileUtil.readFile(file);
+        if (contents == null) {
+            return;
+        }
+        try {
+            JSONObject json = new JSONObject(contents);
+            for (String host : json.keySet()) {
+                JSONObject kinds = json.getJSONObject(host);
+                for (String kind : kinds.keySet()) {
+                    JSONArray values = kinds.getJSONArray(kind);
+                    Samples samples = samples(host, kind);
+                    for (int i = 0; i < values.length(); i++) {
+                        samples.add(values.getLong(i));
+                    }
+                }
+            }
+        } catch (JSONException exception) {
+            logger.warn("Latency history {} is invalid, using default timeouts", file.getAbsolutePath(), exception);
+            hosts.clear();
+            return;
+        }
+        logger.info("Loaded latency history for {} hosts", hosts.size());
+    }
+
+    /**
+     * Save the samples to disk.
+     */
+    public void save() {
+        JSONObject json = new JSONObject();
+        hosts.forEach((host, kinds) -> {
+            JSONObject object = new JSONObject();
+            kinds.forEach((kind, samples) -> object.put(kind, new JSONArray(samples.values())));
+            json.put(host, object);
+        });
+        FileUtil.writeFile(json.toString(), file);
+    }
+
+    /**
+     * Record how long a request took to respond.
+     *
+     * @param host   The host.
+     * @param kind   What the request was for.
+     * @param millis How long until the response headers, or the timeout if it timed out.
+     */
+    public void record(String host, String kind, long millis) {
+        if (host == null || millis < 0) {
+            return;
+        }
+        samples(host, kind).add(millis);
+    }
+
+    /**
+     * Get the timeout for a request. Each retry gets more time, in case the first
+     * attempt hit a slow moment.
+     *
+     * @param host    The host.
+     * @param kind    What the request is for.
+     * @param attempt Which attempt this is, starting at 1.
+     * @return The timeout.
+     */
+    public Duration timeout(String host, String kind, int attempt) {
+        Map<String, Samples> kinds = host == null ? null : hosts.get(host);
+        Samples samples = kinds == null ? null : kinds.get(kind);
+        if (samples == null) {
+            return DEFAULT;
+        }
+        long[] values = samples.values();
+        if (values.length < MIN_SAMPLES) {
+            return DEFAULT;
+        }
+        Arrays.sort(values);
+        long percentile = values[(int) Math.ceil(PERCENTILE * values.length) - 1];
+        long timeout = percentile * MULTIPLIER * Math.max(1, attempt);
+        return Duration.ofMillis(Math.max(FLOOR, Math.min(CEILING, timeout)));
+    }
+
+    private Samples samples(String host, String kind) {
+        return hosts.computeIfAbsent(host, key -> new ConcurrentHashMap<>()).computeIfAbsent(kind, key -> new Samples());
+    }
+
+    /**
+     * The last few samples for a host and kind.
+     */
+    private static class Samples {
+
+        private final long[] ring = new long[WINDOW];
+        private int next = 0;
+        private int size = 0;
+
+        synchronized void add(long value) {
+            ring[next] = value;
+            next = (next + 1) % WINDOW;
+            size = Math.min(size + 1, WINDOW);
+        }
+
+        /**
+         * Copy the samples, oldest first.
+         *
+         * @return The samples.
+         */
+        synchronized long[] values() {
+            long[] values = new long[size];
+            int start = size < WINDOW ? 0 : next;
+            for (int i = 0; i < size; i++) {
+                values[i] = ring[(start + i) % WINDOW];
+            }
+            return values;
+        }
+    }
+}
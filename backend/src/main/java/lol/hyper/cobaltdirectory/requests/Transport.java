@@ -0,0 +1,81 @@
+package lol.hyper.cobaltdirectory.requests;
+
+import org.json.JSONObject;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+public interface Transport {
+
+    /**
+     * Send a POST request.
+     *
+     * @param body          The body to send.
+     * @param url           The url to send to.
+     * @param authorization The API key to use, or null if there is none.
+     * @param timeout       How long to wait for the response.
+     * @return The decoded response.
+     */
+    ApiResults sendPost(JSONObject body, String url, String authorization, Duration timeout);
+
+    /**
+     * Send a POST request without blocking the calling thread.
+     *
+     * @param body          The body to send.
+     * @param url           The url to send to.
+     * @param authorization The API key to use, or null if there is none.
+     * @param timeout       How long to wait for the response.
+     * @return A future that completes with the decoded response. It never completes exceptionally, unless it is cancelled, which cancels the request too.
+     */
+    CompletableFuture<ApiResults> sendPostAsync(JSONObject body, String url, String authorization, Duration timeout);
+
+    /**
+     * Request a JSON object from URL. If there is a cached response, its validators are sent
+     * and the server can answer 304 with no body.
+     *
+     * @param url     The URL to request.
+     * @param cached  The cached response for this URL, or null.
+     * @param timeout How long to wait for the response.
+     * @return The RequestResults it returns. Returns NULL content if it failed or was not modified.
+     */
+    RequestResults requestJSON(String url, CachedResponse cached, Duration timeout);
+
+    /**
+     * Test a cobalt's frontend. It will match the HTML title "cobalt".
+     *
+     * @param url     The url to test.
+     * @param cached  The cached response for this url, or null.
+     * @param timeout How long to wait for the response.
+     * @return The RequestResults, with "valid" as the content if it works. A 304 has no content.
+     */
+    RequestResults testFrontEnd(String url, CachedResponse cached, Duration timeout);
+
+    /**
+     * Test a cobalt's frontend without blocking the calling thread.
+     *
+     * @param url     The url to test.
+     * @param cached  The cached response for this url, or null.
+     * @param timeout How long to wait for the response.
+     * @return A future that completes with the RequestResults. It never completes exceptionally, unless it is cancelled, which cancels the request too.
+     */
+    CompletableFuture<RequestResults> testFrontEndAsync(String url, CachedResponse cached, Duration timeout);
+
+    /**
+     * Download the start of a tunnel with a ranged GET, to check that data actually
+     * comes out of it and how fast. It stops once the sample is read.
+     *
+     * @param url     The tunnel URL in cobalt's response.
+     * @param timeout How long to wait for the response headers.
+     * @return The sample, or null if the request failed.
+     */
+    TunnelSample sampleTunnel(String url, Duration timeout);
+
+    /**
+     * Download the start of a tunnel without blocking the calling thread.
+     *
+     * @param url     The tunnel URL in cobalt's response.
+     * @param timeout How long to wait for the response headers.
+     * @return A future with the sample, or null if the request failed. It never completes exceptionally, unless it is cancelled, which cancels the request too.
+     */
+    CompletableFuture<TunnelSample> sampleTunnelAsync(String url, Duration timeout);
+}
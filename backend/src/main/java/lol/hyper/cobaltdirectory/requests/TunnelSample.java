@@ -0,0 +1,39 @@
+package lol.hyper.cobaltdirectory.requests;
+
+import lol.hyper.cobaltdirectory.tests.ContentLengthHeader;
+import org.json.JSONObject;
+
+/**
+ * What came back when we downloaded the start of a tunnel.
+ *
+ * @param responseCode The HTTP status of the tunnel.
+ * @param length       The length header the tunnel sent, or null if there was none.
+ * @param bytes        How many bytes of the body were read.
+ * @param ttfb         Milliseconds from sending the request to the first byte of the body, or -1 if there was none.
+ * @param throughput   Bytes per second after the first chunk, or -1 if the sample was too small to tell.
+ */
+public record TunnelSample(int responseCode, ContentLengthHeader length, long bytes, long ttfb, long throughput) {
+
+    /**
+     * Read a sample written by toJSON. The response code and length header are not
+     * written, so they are lost.
+     *
+     * @param json The JSON.
+     * @return The sample.
+     */
+    public static TunnelSample fromJSON(JSONObject json) {
+        return new TunnelSample(-1, null, json.optLong("bytes", 0), json.optLong("ttfb", -1), json.optLong("throughput", -1));
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("bytes", bytes);
+        if (ttfb >= 0) {
+            json.put("ttfb", ttfb);
+        }
+        if (throughput >= 0) {
+            json.put("throughput", throughput);
+        }
+        return json;
+    }
+}
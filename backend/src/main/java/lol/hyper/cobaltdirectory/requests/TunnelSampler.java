@@ -0,0 +1,121 @@
+package lol.hyper.cobaltdirectory.requests;
+
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the first part of a tunnel's body and times it. It stops once it has read the
+ * sample size or the time cap runs out, so a huge or very slow file never gets fully
+ * downloaded. The bytes are thrown away, only the count and timing are kept.
+ */
+public class TunnelSampler implements HttpResponse.BodySubscriber<TunnelSample> {
+
+    // a tunnel that trickles data would never fill the sample, stop it after this long
+    private static final long MAX_SAMPLE_TIME = TimeUnit.SECONDS.toMillis(10);
+
+    private final CompletableFuture<TunnelSample> result = new CompletableFuture<>();
+    private final HttpResponse.ResponseInfo info;
+    private final long start;
+    private final long sampleSize;
+    private final long deadline;
+    private Flow.Subscription subscription;
+    private long bytesRead = 0;
+    private long firstChunk = 0;
+    private long firstByte = -1;
+    private long lastByte = -1;
+
+    /**
+     * Create a sampler.
+     *
+     * @param info       The response status and headers.
+     * @param start      System.nanoTime() from when the request was sent.
+     * @param sampleSize How many bytes to read before stopping.
+     * @param timeout    How long the request can take, the sample stops when it is up.
+     */
+    public TunnelSampler(HttpResponse.ResponseInfo info, long start, long sampleSize, Duration timeout) {
+        this.info = info;
+        this.start = start;
+        this.sampleSize = sampleSize;
+        this.deadline = start + timeout.toNanos();
+    }
+
+    @Override
+    public CompletionStage<TunnelSample> getBody() {
+        return result;
+    }
+
+    @Override
+    public synchronized void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        // a failed tunnel's body is an error page, don't bother reading it
+        if (info.statusCode() != 200 && info.statusCode() != 206) {
+            finish();
+            return;
+        }
+        // the timeout is capped at the test's deadline, so the sample never runs past it either
+        long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        CompletableFuture.runAsync(this::finish, CompletableFuture.delayedExecutor(Math.max(0, Math.min(MAX_SAMPLE_TIME, left)), TimeUnit.MILLISECONDS));
+        subscription.request(1);
+    }
+
+    @Override
+    public synchronized void onNext(List<ByteBuffer> items) {
+        if (result.isDone()) {
+            return;
+        }
+        long read = 0;
+        for (ByteBuffer buffer : items) {
+            read += buffer.remaining();
+        }
+        if (read > 0) {
+            lastByte = System.nanoTime();
+            if (firstByte < 0) {
+                firstByte = lastByte;
+                firstChunk = read;
+            }
+            bytesRead += read;
+        }
+        if (bytesRead >= sampleSize) {
+            finish();
+            return;
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        result.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        finish();
+    }
+
+    /**
+     * Complete the sample with what was read so far and stop reading the body.
+     */
+    private synchronized void finish() {
+        long ttfb = firstByte < 0 ? -1 : toMillis(firstByte - start);
+        long throughput = -1;
+        long transfer = lastByte - firstByte;
+        // the first chunk landed at firstByte, so only what came after it counts toward the speed
+        if (firstByte >= 0 && transfer > 0) {
+            throughput = (bytesRead - firstChunk) * TimeUnit.SECONDS.toNanos(1) / transfer;
+        }
+        TunnelSample sample = new TunnelSample(info.statusCode(), HttpTransport.extractLength(info.headers()), bytesRead, ttfb, throughput);
+        if (result.complete(sample)) {
+            subscription.cancel();
+        }
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.MILLISECONDS.convert(nanos, TimeUnit.NANOSECONDS);
+    }
+}
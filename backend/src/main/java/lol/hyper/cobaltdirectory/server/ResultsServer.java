@@ -0,0 +1,171 @@
+package lol.hyper.cobaltdirectory.server;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Serves the output of the last run from memory: /results.json, /api.json, /api_frontends.json,
+ * /index.json and /instances/{id}.json. Requests never touch the disk or parse JSON, they only
+ * pick bytes out of the current snapshot. Each run swaps in a new snapshot in one step, so a
+ * request sees either the old run or the new one.
+ * <p>
+ * Responses have strong ETags, and If-None-Match gets a 304. Clients that accept gzip get the
+ * gzipped bytes.
+ */
+public class ResultsServer {
+
+    private final Logger logger = LogManager.getLogger(this);
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+    private final InetAddress address;
+    private final int port;
+    private HttpServer server;
+
+    /**
+     * Create a ResultsServer.
+     *
+     * @param address The address to listen on, loopback unless it should be reachable from other hosts.
+     * @param port    The port.
+     */
+    public ResultsServer(InetAddress address, int port) {
+        this.address = address;
+        this.port = port;
+    }
+
+    /**
+     * Start listening.
+     *
+     * @throws IOException If the port can't be bound.
+     */
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        logger.info("Serving results on {}", server.getAddress());
+    }
+
+    /**
+     * Swap in the output of a new run.
+     *
+     * @param next The new snapshot.
+     */
+    public void publish(Snapshot next) {
+        snapshot.set(next);
+        logger.info("Serving new snapshot with {} files", next.resources().size());
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            boolean head = method.equals("HEAD");
+            Headers response = exchange.getResponseHeaders();
+            if (!head && !method.equals("GET")) {
+                response.set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            Snapshot current = snapshot.get();
+            if (current == null) {
+                // nothing has finished yet
+                response.set("Retry-After", "60");
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            Snapshot.Resource resource = current.resources().get(exchange.getRequestURI().getPath());
+            if (resource == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            boolean gzip = acceptsGzip(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+            String etag = gzip ? resource.gzipEtag() : resource.etag();
+            response.set("ETag", etag);
+            response.set("Vary", "Accept-Encoding");
+            response.set("Cache-Control", "no-cache");
+            if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            byte[] body = gzip ? resource.gzip() : resource.body();
+            response.set("Content-Type", "application/json; charset=utf-8");
+            if (gzip) {
+                response.set("Content-Encoding", "gzip");
+            }
+            if (head) {
+                response.set("Content-Length", String.valueOf(body.length));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    /**
+     * Check if a client takes gzip. A q of 0 means it doesn't.
+     */
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.trim().split(";");
+            if (params[0].trim().equalsIgnoreCase("gzip")) {
+                for (int i = 1; i < params.length; i++) {
+                    String param = params[i].trim();
+                    if (param.startsWith("q=")) {
+                        try {
+                            return Double.parseDouble(param.substring(2)) > 0;
+                        } catch (NumberFormatException exception) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check an If-None-Match header against an ETag. If-None-Match uses the weak comparison,
+     * so a W/ prefix is ignored.
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            String trimmed = tag.trim();
+            if (trimmed.equals("*")) {
+                return true;
+            }
+            if (trimmed.startsWith("W/")) {
+                trimmed = trimmed.substring(2);
+            }
+            if (trimmed.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
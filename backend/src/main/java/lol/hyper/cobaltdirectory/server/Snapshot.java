@@ -0,0 +1,91 @@
+package lol.hyper.cobaltdirectory.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The output of one run, ready to serve. Every file is serialized and gzipped once when the
+ * snapshot is built, and never changes after that.
+ *
+ * @param resources The files, by path.
+ * @param created   When the snapshot was built.
+ */
+public record Snapshot(Map<String, Resource> resources, long created) {
+
+    /**
+     * One file.
+     *
+     * @param body     The bytes.
+     * @param gzip     The bytes, gzipped.
+     * @param etag     The strong ETag of the bytes, quoted.
+     * @param gzipEtag The strong ETag of the gzipped bytes, quoted.
+     */
+    public record Resource(byte[] body, byte[] gzip, String etag, String gzipEtag) {
+
+        static Resource of(byte[] body) {
+            return of(body, compress(body));
+        }
+
+        static Resource of(byte[] body, byte[] gzip) {
+            String hash = hash(body);
+            return new Resource(body, gzip, "\"" + hash + "\"", "\"" + hash + "-gz\"");
+        }
+    }
+
+    /**
+     * Collects the files of a run, then builds the snapshot.
+     */
+    public static class Builder {
+
+        private final Map<String, Resource> resources = new HashMap<>();
+
+        public Builder put(String path, byte[] body) {
+            resources.put(path, Resource.of(body));
+            return this;
+        }
+
+        /**
+         * Add a file that is already gzipped, like one read back with its .gz next to it.
+         */
+        public Builder put(String path, byte[] body, byte[] gzip) {
+            resources.put(path, Resource.of(body, gzip));
+            return this;
+        }
+
+        public Builder put(String path, String body) {
+            return put(path, body.getBytes(StandardCharsets.UTF_8));
+        }
+
+        public Snapshot build() {
+            return new Snapshot(Map.copyOf(resources), System.currentTimeMillis());
+        }
+    }
+
+    private static byte[] compress(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(body);
+        } catch (IOException exception) {
+            // only memory is involved here
+            throw new UncheckedIOException(exception);
+        }
+        return out.toByteArray();
+    }
+
+    private static String hash(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return HexFormat.of().formatHex(digest, 0, 12);
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+}
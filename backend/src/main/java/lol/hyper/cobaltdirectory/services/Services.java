@@ -10,13 +10,16 @@ import java.util.*;
 public class Services {
 
     private final JSONObject tests;
+    private final JSONObject limits;
+    private final Map<String, Integer> serviceLimits = new HashMap<>();
     private final Map<String, String> testsUrls = new HashMap<>();
     private static final Map<String, String> idToFriendly = new HashMap<>();
     private final Logger logger = LogManager.getLogger(Services.class, CobaltDirectory.getMessageFactory());
     private final List<String> services = new ArrayList<>();
 
-    public Services(JSONObject tests) {
+    public Services(JSONObject tests, JSONObject limits) {
         this.tests = tests;
+        this.limits = limits;
     }
 
     public void importTests() {
@@ -30,6 +33,20 @@ public class Services {
             testsUrls.put(serviceId, serviceUrl);
         }
         idToFriendly.put("frontend", "Frontend");
+
+        // how many instances can test a service at once, so the service doesn't throttle them
+        for (String service : limits.keySet()) {
+            if (service.equalsIgnoreCase("default")) {
+                continue;
+            }
+            int limit = limits.optInt(service, -1);
+            if (limit <= 0) {
+                logger.warn("Invalid limit for {} in limits.json, ignoring", service);
+                continue;
+            }
+            logger.info("Limiting {} to {} tests at once", service, limit);
+            serviceLimits.put(makeSlug(service), limit);
+        }
     }
 
     public static String makeSlug(String service) {
@@ -41,6 +58,24 @@ public class Services {
         return testsUrls;
     }
 
+    /**
+     * How many tests for each service can be in flight at once.
+     *
+     * @return The limits by service id. Services that aren't in here use the default.
+     */
+    public Map<String, Integer> getLimits() {
+        return serviceLimits;
+    }
+
+    /**
+     * How many tests for a service without its own limit can be in flight at once.
+     *
+     * @return The limit, or -1 for no limit.
+     */
+    public int getDefaultLimit() {
+        return limits.optInt("default", -1);
+    }
+
     public List<String> getServices() {
         return services;
     }
@@ -0,0 +1,42 @@
+package lol.hyper.cobaltdirectory.tests;
+
+import java.util.Locale;
+
+/**
+ * How TestBuilder runs the service tests.
+ */
+public enum ExecutionMode {
+
+    /**
+     * A fixed pool of platform threads, each blocking through a whole test.
+     */
+    POOL,
+    /**
+     * One virtual thread per test, capped by the concurrency setting.
+     */
+    VIRTUAL,
+    /**
+     * Non-blocking futures, a handful of threads keep many requests in flight.
+     */
+    ASYNC;
+
+    /**
+     * Get a mode from the "mode" argument.
+     *
+     * @param value The argument value.
+     * @return The mode, or null if it does not exist.
+     */
+    public static ExecutionMode fromString(String value) {
+        for (ExecutionMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(value.trim())) {
+                return mode;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,148 @@
+package lol.hyper.cobaltdirectory.tests;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spaces out requests to each API based on the rate limit headers it sends back.
+ * cobalt reports RateLimit-Remaining and RateLimit-Reset on every response, and
+ * Retry-After once we go over. We use them to spread the remaining tests for
+ * that API over its window, instead of finding the limit by hitting it.
+ */
+public class PacingController {
+
+    private static final long MAX_WAIT = TimeUnit.SECONDS.toMillis(120);
+
+    private final Logger logger = LogManager.getLogger(this);
+    private final Map<String, Pace> hosts = new ConcurrentHashMap<>();
+
+    /**
+     * When the next request to a host can go out, and how far apart requests should be.
+     *
+     * @param nextAllowed The earliest time the next request can be sent, in millis.
+     * @param spacing     How long to leave between requests, in millis.
+     */
+    private record Pace(long nextAllowed, long spacing) {
+    }
+
+    /**
+     * Reserve the next slot for a request to a host.
+     *
+     * @param host The host.
+     * @return How long to wait before sending, in millis. 0 means send now.
+     */
+    public long reserve(String host) {
+        long now = System.currentTimeMillis();
+        AtomicLong wait = new AtomicLong();
+        hosts.computeIfPresent(host, (key, pace) -> {
+            long slot = Math.max(now, pace.nextAllowed());
+            wait.set(slot - now);
+            return new Pace(slot + pace.spacing(), pace.spacing());
+        });
+        return wait.get();
+    }
+
+    /**
+     * Update a host's pacing from the headers of its latest response.
+     *
+     * @param host    The host.
+     * @param headers The response headers, with lowercase keys.
+     */
+    public void update(String host, Map<String, String> headers) {
+        if (headers == null || headers.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long retryAfter = parseRetryAfter(headers);
+        long remaining = -1;
+        long reset = -1;
+
+        // draft-6 headers, which cobalt sends
+        if (headers.containsKey("ratelimit-remaining") && headers.containsKey("ratelimit-reset")) {
+            remaining = parseLong(headers.get("ratelimit-remaining"));
+            reset = parseLong(headers.get("ratelimit-reset"));
+        } else if (headers.containsKey("ratelimit")) {
+            // draft-7 combines them: limit=10, remaining=5, reset=30
+            for (String part : headers.get("ratelimit").split("[,;]")) {
+                String[] pair = part.trim().split("=", 2);
+                if (pair.length != 2) {
+                    continue;
+                }
+                switch (pair[0].trim().toLowerCase(Locale.ROOT)) {
+                    case "remaining" -> remaining = parseLong(pair[1]);
+                    case "reset" -> reset = parseLong(pair[1]);
+                    default -> {
+                    }
+                }
+            }
+        }
+
+        if (retryAfter < 0 && (remaining < 0 || reset < 0)) {
+            return;
+        }
+
+        long resetMillis = Math.min(MAX_WAIT, TimeUnit.SECONDS.toMillis(Math.max(0, reset)));
+        long nextAllowed = now;
+        long spacing = 0;
+        if (remaining == 0) {
+            // out of requests, nothing goes out until the window resets
+            nextAllowed = now + resetMillis;
+        } else if (remaining > 0) {
+            // spread what's left evenly over the rest of the window
+            spacing = resetMillis / remaining;
+        }
+        if (retryAfter >= 0) {
+            nextAllowed = Math.max(nextAllowed, now + retryAfter);
+        }
+
+        long finalNextAllowed = nextAllowed;
+        long finalSpacing = spacing;
+        hosts.merge(host, new Pace(finalNextAllowed, finalSpacing), (old, updated) -> new Pace(Math.max(old.nextAllowed(), updated.nextAllowed()), updated.spacing()));
+        if (finalNextAllowed > now) {
+            logger.info("Pacing {} - holding requests for {}ms", host, finalNextAllowed - now);
+        }
+    }
+
+    /**
+     * Read the Retry-After header. It can be a number of seconds or an HTTP date.
+     *
+     * @param headers The response headers, with lowercase keys.
+     * @return How long to wait in millis, or -1 if the header is missing or invalid.
+     */
+    public static long parseRetryAfter(Map<String, String> headers) {
+        if (headers == null) {
+            return -1;
+        }
+        String value = headers.get("retry-after");
+        if (value == null) {
+            return -1;
+        }
+        long seconds = parseLong(value);
+        if (seconds >= 0) {
+            return Math.min(MAX_WAIT, TimeUnit.SECONDS.toMillis(seconds));
+        }
+        try {
+            long until = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return Math.min(MAX_WAIT, Math.max(0, until - System.currentTimeMillis()));
+        } catch (DateTimeParseException exception) {
+            return -1;
+        }
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException exception) {
+            return -1;
+        }
+    }
+}
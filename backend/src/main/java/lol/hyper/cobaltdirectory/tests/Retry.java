@@ -0,0 +1,26 @@
+package lol.hyper.cobaltdirectory.tests;
+
+/**
+ * A request from a test to be run again later.
+ *
+ * @param reason     Why the test wants to run again.
+ * @param message    What to record if the test is not retried.
+ * @param retryAfter How long the API asked us to wait in millis, or -1 if it didn't say.
+ */
+public record Retry(Reason reason, String message, long retryAfter) {
+
+    public Retry(Reason reason, String message) {
+        this(reason, message, -1);
+    }
+
+    public enum Reason {
+        /**
+         * The API told us to slow down.
+         */
+        RATE_LIMITED,
+        /**
+         * The request failed to connect or timed out.
+         */
+        TRANSIENT
+    }
+}
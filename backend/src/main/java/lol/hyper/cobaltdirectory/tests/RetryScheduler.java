@@ -0,0 +1,112 @@
+package lol.hyper.cobaltdirectory.tests;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Puts tests back in the queue after a delay, instead of having a worker sleep on them.
+ * The delay backs off exponentially per attempt with jitter, and all retries in a run
+ * share one budget so a bad run can't retry forever.
+ */
+public class RetryScheduler {
+
+    public static final int MAX_ATTEMPTS = 5;
+    private static final long RATE_LIMIT_BASE = TimeUnit.SECONDS.toMillis(10);
+    private static final long TRANSIENT_BASE = TimeUnit.SECONDS.toMillis(2);
+    private static final long MAX_DELAY = TimeUnit.SECONDS.toMillis(60);
+
+    private final Logger logger = LogManager.getLogger(this);
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> Thread.ofPlatform().name("retry-scheduler").daemon().unstarted(runnable));
+    private final AtomicInteger budget;
+
+    /**
+     * Create a RetryScheduler.
+     *
+     * @param budget How many retries are allowed for the whole run.
+     */
+    public RetryScheduler(int budget) {
+        this.budget = new AtomicInteger(budget);
+    }
+
+    /**
+     * Schedule a test to run again.
+     *
+     * @param test    The test.
+     * @param retry   Why the test wants to be retried.
+     * @param requeue What to run once the delay is up, this should put the test back in the queue.
+     * @return SCHEDULED if it was scheduled, otherwise why it wasn't.
+     */
+    public Outcome schedule(Test test, Retry retry, Runnable requeue) {
+        int attempts = test.getAttempts();
+        if (attempts >= MAX_ATTEMPTS) {
+            return Outcome.OUT_OF_ATTEMPTS;
+        }
+        if (budget.getAndUpdate(left -> left > 0 ? left - 1 : 0) <= 0) {
+            logger.warn("Retry budget is used up, not retrying {}", test);
+            return Outcome.OUT_OF_BUDGET;
+        }
+        // never come back sooner than the API asked us to
+        long delay = Math.max(delayFor(retry.reason(), attempts), retry.retryAfter());
+        logger.info("Retrying {} in {}ms, reason={}, attempts={}", test, delay, retry.reason(), attempts);
+        scheduler.schedule(requeue, delay, TimeUnit.MILLISECONDS);
+        return Outcome.SCHEDULED;
+    }
+
+    /**
+     * Run something after a delay. This does not count against the retry budget.
+     *
+     * @param task  What to run.
+     * @param delay The delay in millis.
+     */
+    public void later(Runnable task, long delay) {
+        scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Work out how long to wait. The window doubles every attempt, and we pick a random
+     * spot in the upper half of it so tests that failed together don't come back together.
+     *
+     * @param reason   Why the test is being retried.
+     * @param attempts How many attempts were already made.
+     * @return The delay in milliseconds.
+     */
+    private long delayFor(Retry.Reason reason, int attempts) {
+        long base = reason == Retry.Reason.RATE_LIMITED ? RATE_LIMIT_BASE : TRANSIENT_BASE;
+        long window = Math.min(MAX_DELAY, base << Math.min(attempts, 10));
+        return ThreadLocalRandom.current().nextLong(window / 2, window + 1);
+    }
+
+    /**
+     * How many retries are left for this run.
+     *
+     * @return The retries left.
+     */
+    public int getBudget() {
+        return budget.get();
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    public enum Outcome {
+        /**
+         * The test will run again after its delay.
+         */
+        SCHEDULED,
+        /**
+         * The test used up its own attempts.
+         */
+        OUT_OF_ATTEMPTS,
+        /**
+         * The run's shared retry budget is used up.
+         */
+        OUT_OF_BUDGET
+    }
+}
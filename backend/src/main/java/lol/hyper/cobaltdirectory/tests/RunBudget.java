@@ -0,0 +1,48 @@
+package lol.hyper.cobaltdirectory.tests;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long a run and each test in it are allowed to take. The run budget starts when
+ * this is created, and a test's deadline starts the first time it is dispatched and
+ * covers all of its retries. A test's deadline never goes past the end of the run.
+ */
+public class RunBudget {
+
+    private final long runDeadline;
+    private final long testLimit;
+
+    /**
+     * Create a RunBudget.
+     *
+     * @param runMillis  How long the whole run can take.
+     * @param testMillis How long one test can take, retries included.
+     */
+    public RunBudget(long runMillis, long testMillis) {
+        this.runDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(runMillis);
+        this.testLimit = TimeUnit.MILLISECONDS.toNanos(testMillis);
+    }
+
+    /**
+     * Get the deadline for a test that starts now.
+     *
+     * @return The deadline, as a System.nanoTime() value.
+     */
+    public long testDeadline() {
+        long deadline = System.nanoTime() + testLimit;
+        return deadline - runDeadline < 0 ? deadline : runDeadline;
+    }
+
+    /**
+     * How long is left in the run.
+     *
+     * @return The time left in millis, 0 if it's over.
+     */
+    public long runRemaining() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(runDeadline - System.nanoTime()));
+    }
+
+    public boolean isRunOver() {
+        return runRemaining() == 0;
+    }
+}
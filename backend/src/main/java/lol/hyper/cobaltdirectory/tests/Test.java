@@ -2,23 +2,34 @@ package lol.hyper.cobaltdirectory.tests;
 
 import lol.hyper.cobaltdirectory.CobaltDirectory;
 import lol.hyper.cobaltdirectory.instance.Instance;
+import lol.hyper.cobaltdirectory.requests.ApiResponse;
+import lol.hyper.cobaltdirectory.requests.ApiResults;
+import lol.hyper.cobaltdirectory.requests.CachedResponse;
+import lol.hyper.cobaltdirectory.requests.ResponseCache;
 import lol.hyper.cobaltdirectory.requests.RequestResults;
+import lol.hyper.cobaltdirectory.requests.RequestTiming;
+import lol.hyper.cobaltdirectory.requests.TunnelSample;
 import lol.hyper.cobaltdirectory.services.Services;
-import lol.hyper.cobaltdirectory.utils.RequestUtil;
 import lol.hyper.cobaltdirectory.utils.StringUtil;
 import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.json.JSONArray;
-import org.json.JSONException;
 import org.json.JSONObject;
 import org.jsoup.Jsoup;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
-import java.util.Random;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Test {
 
@@ -31,6 +42,27 @@ public class Test {
     private int attempts = 0;
     private final List<String> validStatus = Arrays.asList("redirect", "stream", "tunnel", "success", "picker", "local-processing");
     private String api;
+    private String tunnelUrl;
+    private String tunnelStatus;
+    private Retry retry;
+    private Map<String, String> responseHeaders;
+    private RequestTiming timing;
+    private TunnelSample tunnelSample;
+    private Duration timeout;
+    // if the last timeout was cut short by the deadline, so it says nothing about the host
+    private boolean capped;
+    private volatile long deadline;
+    private volatile boolean started = false;
+    private final AtomicBoolean recorded = new AtomicBoolean();
+    // the request in flight when the test runs async, so it can be cancelled when time is up
+    private volatile CompletableFuture<?> request;
+
+    /**
+     * What a test does after the API responds.
+     */
+    private enum Stage {
+        DONE, CHECK_TUNNEL, RETRY
+    }
 
     public Test(Instance instance, String serviceId, String testUrl, String authorization) {
         this.instance = instance;
@@ -39,29 +71,269 @@ public class Test {
         this.authorization = authorization;
     }
 
-    public void run() {
+    /**
+     * Run one attempt of the test, blocking until it is done.
+     *
+     * @return A Retry if the test wants to run again later, null if the result was recorded.
+     */
+    public Retry run() {
+        attempts++;
         if (serviceId.equalsIgnoreCase("Frontend")) {
-            runFrontEndTest();
-        } else {
-            friendlyService = Services.getIdToFriendly().get(serviceId);
-            runApiTest();
+            return recordFrontEnd(CobaltDirectory.getTransport().testFrontEnd(testUrl, CobaltDirectory.getResponseCache().get(testUrl), timeout("frontend")));
+        }
+        friendlyService = Services.getIdToFriendly().get(serviceId);
+        long start = System.nanoTime();
+        ApiResults testResponse = CobaltDirectory.getTransport().sendPost(postBody(), api, authorization, timeout(serviceId));
+        long time = TimeUnit.MILLISECONDS.convert((System.nanoTime() - start), TimeUnit.NANOSECONDS);
+        Stage next = parseResponse(testResponse, time);
+        if (next == Stage.CHECK_TUNNEL) {
+            checkTunnel(CobaltDirectory.getTransport().sampleTunnel(tunnelUrl, timeout("tunnel")), time);
+        }
+        return next == Stage.RETRY ? retry : null;
+    }
+
+    /**
+     * Run one attempt of the test without blocking. Each stage (POST, parse, tunnel check)
+     * is chained onto the previous one, so no thread waits on the network.
+     *
+     * @return A future with a Retry if the test wants to run again later, null if the result was recorded.
+     */
+    public CompletableFuture<Retry> runAsync() {
+        attempts++;
+        if (serviceId.equalsIgnoreCase("Frontend")) {
+            CompletableFuture<RequestResults> frontend = CobaltDirectory.getTransport().testFrontEndAsync(testUrl, CobaltDirectory.getResponseCache().get(testUrl), timeout("frontend"));
+            request = frontend;
+            return frontend.thenApply(this::recordFrontEnd);
         }
+        friendlyService = Services.getIdToFriendly().get(serviceId);
+        long start = System.nanoTime();
+        CompletableFuture<ApiResults> post = CobaltDirectory.getTransport().sendPostAsync(postBody(), api, authorization, timeout(serviceId));
+        request = post;
+        return post.thenCompose(testResponse -> {
+            long time = TimeUnit.MILLISECONDS.convert((System.nanoTime() - start), TimeUnit.NANOSECONDS);
+            Stage next = parseResponse(testResponse, time);
+            return switch (next) {
+                case CHECK_TUNNEL -> {
+                    CompletableFuture<TunnelSample> tunnel = CobaltDirectory.getTransport().sampleTunnelAsync(tunnelUrl, timeout("tunnel"));
+                    request = tunnel;
+                    yield tunnel.thenApply(sample -> {
+                        checkTunnel(sample, time);
+                        return null;
+                    });
+                }
+                case RETRY -> CompletableFuture.completedFuture(retry);
+                case DONE -> CompletableFuture.completedFuture(null);
+            };
+        });
     }
 
-    private void runFrontEndTest() {
-        RequestResults frontendTest = RequestUtil.testFrontEnd(testUrl);
+    /**
+     * Record the final failure for a test that will not be retried.
+     *
+     * @param retry   The retry that was turned down.
+     * @param outcome Why it was turned down.
+     */
+    public void giveUp(Retry retry, RetryScheduler.Outcome outcome) {
+        logger.error("Test FAIL for {} - giving up after {} attempts, reason={}, outcome={}", this, attempts, retry.reason(), outcome);
+        String why = outcome == RetryScheduler.Outcome.OUT_OF_BUDGET ? "retry budget used up" : "max attempts reached (" + attempts + ")";
+        record(false, retry.message() + ", " + why);
+    }
+
+    /**
+     * Start the test's deadline, the first time it is dispatched.
+     *
+     * @param budget The run's budget.
+     */
+    public void startClock(RunBudget budget) {
+        if (!started) {
+            deadline = budget.testDeadline();
+            started = true;
+        }
+    }
+
+    /**
+     * Check if the test is past its deadline.
+     *
+     * @return true if it has no time left.
+     */
+    public boolean isExpired() {
+        return started && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * How long the test has until its deadline.
+     *
+     * @return The time left in millis, can be negative.
+     */
+    public long timeLeft() {
+        return TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+    }
+
+    /**
+     * Cancel the request a test run with runAsync is waiting on, which drops the exchange.
+     * Blocking runs are stopped by interrupting their thread instead.
+     */
+    public void cancel() {
+        CompletableFuture<?> current = request;
+        if (current != null) {
+            current.cancel(true);
+        }
+    }
+
+    /**
+     * Record that the test ran out of time, unless it already has a result.
+     *
+     * @param why What ran out, for the log.
+     */
+    public void timedOut(String why) {
+        if (!recorded.get()) {
+            logger.error("Test FAIL for {} - timed out by {} after {} attempts", this, why, attempts);
+        }
+        record(false, "Timed out by budget");
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public String getServiceId() {
+        return serviceId;
+    }
+
+    public boolean isFrontEnd() {
+        return serviceId.equalsIgnoreCase("Frontend");
+    }
+
+    /**
+     * The host this test sends requests to, the API or the frontend.
+     *
+     * @return The host.
+     */
+    public String getHost() {
+        return isFrontEnd() ? instance.getFrontEnd() : instance.getApi();
+    }
+
+    /**
+     * The headers from the last response the API sent for this test.
+     *
+     * @return The headers, or null if there was no response.
+     */
+    public Map<String, String> getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    private Retry recordFrontEnd(RequestResults frontendTest) {
+        ResponseCache cache = CobaltDirectory.getResponseCache();
+        CachedResponse cached = cache.get(testUrl);
+        timing = frontendTest.timing();
+        observe("frontend", timing, frontendTest.exception());
+        // the page is the same as last run, so the result is too
+        if (frontendTest.responseCode() == 304 && cached != null) {
+            cache.touch(testUrl);
+            boolean valid = cached.facts().optBoolean("valid");
+            String message = valid ? "Working" : cached.facts().optString("message", "no");
+            record(valid, message);
+            logger.info("Test {} for checking frontend {} - not modified since last run", valid ? "PASS" : "FAIL", testUrl);
+            return null;
+        }
         String message = frontendTest.responseContent();
-        if (message.equalsIgnoreCase("valid")) {
-            instance.addResult(new TestResult(serviceId, true, "Working"));
+        if (message == null) {
+            Exception exception = frontendTest.exception();
+            if (isTransient(exception)) {
+                logger.warn("Test RETRY for checking frontend {} - {}", testUrl, exception.toString());
+                return new Retry(Retry.Reason.TRANSIENT, exception.toString());
+            }
+            message = String.valueOf(exception);
+        }
+        boolean valid = message.equalsIgnoreCase("valid");
+        if (valid) {
+            record(true, "Working");
             logger.info("Test PASS for checking frontend {} ", testUrl);
         } else {
             logger.info("Test FAIL for checking frontend {} -  {}", testUrl, message);
-            instance.addResult(new TestResult(serviceId, false, message));
+            record(false, message);
+        }
+        if (frontendTest.responseCode() == 200) {
+            JSONObject facts = new JSONObject();
+            facts.put("valid", valid);
+            facts.put("message", message);
+            cache.put(testUrl, frontendTest.headers(), facts);
         }
+        return null;
     }
 
-    private void runApiTest() {
-        long start = System.nanoTime();
+    /**
+     * Add this test's result to the instance, with the timing of the last request
+     * and the tunnel sample if there was one.
+     *
+     * @param status  If the test passed.
+     * @param message The message to show.
+     */
+    private void record(boolean status, String message) {
+        // a test that was timed out can still finish afterward, the first result is the one that counts
+        if (!recorded.compareAndSet(false, true)) {
+            return;
+        }
+        instance.addResult(new TestResult(serviceId, status, message, timing, tunnelSample));
+    }
+
+    /**
+     * Get the timeout for the next request from this instance's latency history.
+     *
+     * @param kind What the request is for.
+     * @return The timeout.
+     */
+    private Duration timeout(String kind) {
+        timeout = CobaltDirectory.getTimeoutPolicy().timeout(instance.getApi(), kind, attempts);
+        capped = false;
+        // never wait past the deadline, the transport gives up on the headers and the body once the timeout is up
+        if (started) {
+            long left = timeLeft();
+            if (left < timeout.toMillis()) {
+                timeout = Duration.ofMillis(Math.max(1, left));
+                capped = true;
+            }
+        }
+        return timeout;
+    }
+
+    /**
+     * Add how long a request took to the latency history. A timeout counts as taking
+     * the whole timeout, so hosts that keep timing out don't get less time.
+     *
+     * @param kind      What the request was for.
+     * @param timing    The timing of the request, or null if it failed.
+     * @param exception Why it failed, or null.
+     */
+    private void observe(String kind, RequestTiming timing, Exception exception) {
+        if (timing != null) {
+            CobaltDirectory.getTimeoutPolicy().record(instance.getApi(), kind, timing.ttfb());
+        } else if (exception instanceof HttpTimeoutException && !capped) {
+            CobaltDirectory.getTimeoutPolicy().record(instance.getApi(), kind, timeout.toMillis());
+        }
+    }
+
+    /**
+     * Check if a failed request is worth trying again. Connection failures and timeouts
+     * usually are, things like DNS or certificate errors are not.
+     *
+     * @param exception The exception from the request.
+     * @return true if it can be retried.
+     */
+    private static boolean isTransient(Exception exception) {
+        return exception instanceof HttpTimeoutException
+                || exception instanceof ConnectException
+                || exception instanceof SocketTimeoutException
+                || exception instanceof EOFException
+                || (exception instanceof IOException && String.valueOf(exception.getMessage()).contains("reset"));
+    }
+
+    /**
+     * Build the body we POST to the API, and work out which endpoint to use.
+     *
+     * @return The request body.
+     */
+    private JSONObject postBody() {
         String protocol = instance.getProtocol();
         if (instance.is10()) {
             api = protocol + "://" + instance.getApi();
@@ -70,51 +342,56 @@ public class Test {
         }
         JSONObject postContents = new JSONObject();
         postContents.put("url", testUrl);
-        RequestResults testResponse = RequestUtil.sendPost(postContents, api, authorization);
-        String content = testResponse.responseContent();
+        return postContents;
+    }
+
+    /**
+     * Parse the API's response to the POST. Records the result if the test is finished.
+     *
+     * @param testResponse The response from the API.
+     * @param time         How long the request took.
+     * @return What the test should do next.
+     */
+    private Stage parseResponse(ApiResults testResponse, long time) {
+        String protocol = instance.getProtocol();
+        ApiResponse apiResponse = testResponse.response();
         int responseCode = testResponse.responseCode();
         Exception exception = testResponse.exception();
-        long time = TimeUnit.MILLISECONDS.convert((System.nanoTime() - start), TimeUnit.NANOSECONDS);
+        responseHeaders = testResponse.headers();
+        timing = testResponse.timing();
+        observe(serviceId, timing, exception);
         // check if there are exceptions first
         if (exception != null) {
+            if (isTransient(exception)) {
+                logger.warn("Test RETRY for {} with {} - HTTP {}, reason={}, time={}ms", api, friendlyService, responseCode, exception.toString(), time);
+                retry = new Retry(Retry.Reason.TRANSIENT, exception.toString());
+                return Stage.RETRY;
+            }
             logger.warn("Test FAIL for {} with {} - HTTP {}, reason={}, time={}ms", api, friendlyService, responseCode, exception.toString(), time);
-            instance.addResult(new TestResult(serviceId, false, exception.toString()));
-            return;
+            record(false, exception.toString());
+            return Stage.DONE;
         }
         // check if the content returned was null
-        if (content == null) {
+        if (apiResponse == null) {
             logger.warn("Test FAIL for {} with {} - HTTP {}, time={}ms response content returned null", api, friendlyService, responseCode, time);
-            instance.addResult(new TestResult(serviceId, false, "Response content returned null from API"));
-            return;
+            record(false, "Response content returned null from API");
+            return Stage.DONE;
         }
-        // make sure we can parse the response from the API
-        JSONObject jsonResponse;
-        try {
-            jsonResponse = new JSONObject(content);
-        } catch (JSONException jsonException) {
-            logger.warn("Test FAIL for {} with {} - HTTP {}, reason={}, time={}ms", api, friendlyService, responseCode, jsonException.toString(), time);
-            instance.addResult(new TestResult(serviceId, false, jsonException.toString()));
-            return;
+        // make sure we could parse the response from the API
+        if (apiResponse.isMalformed()) {
+            String reason = "Malformed API response: " + apiResponse.malformed();
+            logger.warn("Test FAIL for {} with {} - HTTP {}, reason={}, time={}ms", api, friendlyService, responseCode, reason, time);
+            record(false, reason);
+            return Stage.DONE;
         }
         // get the status of the API request
         // just in case it randomly doesn't return
-        String status;
-        if (jsonResponse.has("status")) {
-            status = jsonResponse.getString("status");
-        } else {
+        String status = apiResponse.status();
+        if (status == null) {
             status = "UNKNOWN";
         }
-        // count the attempts here, since the previous ones failed
-        attempts++;
         // if the API's response was HTTP 200, it most likely worked
         if (responseCode == 200) {
-            // if the response has a status key, then read it. otherwise, it probably failed
-            if (status == null) {
-                logger.warn("Test FAIL for {} with {} - HTTP 200, status=INVALID, time={}ms", api, friendlyService, time);
-                instance.addResult(new TestResult(serviceId, false, "Status returned null, HTTP " + responseCode));
-                return;
-            }
-
             // check if the status is valid in the response JSON
             if (validStatus.contains(status.toLowerCase(Locale.ROOT))) {
                 // if the response was tunnel or stream, check the headers
@@ -123,96 +400,109 @@ public class Test {
                 if (status.equalsIgnoreCase("tunnel") || status.equalsIgnoreCase("stream")) {
                     // make sure the tunnel link returns the correct domain
                     // some APIs never do this
-                    String tunnelUrl = StringUtil.rewrite(jsonResponse.getString("url"), instance.getApi(), protocol);
-                    checkHeaders(tunnelUrl, status, time);
-                    return;
+                    if (apiResponse.url() == null) {
+                        logger.error("Test FAIL for {} with {} - HTTP 200, status={}, time={}ms - no url returned", api, friendlyService, status, time);
+                        record(false, "Returned " + status + ", but no url");
+                        return Stage.DONE;
+                    }
+                    tunnelUrl = StringUtil.rewrite(apiResponse.url(), instance.getApi(), protocol);
+                    tunnelStatus = status;
+                    return Stage.CHECK_TUNNEL;
                 }
                 if (status.equalsIgnoreCase("local-processing")) {
                     // make sure we have tunnel links
                     // not sure if this is ever possible to fail
-                    if (!jsonResponse.has("tunnel")) {
+                    if (apiResponse.tunnel() == null) {
                         logger.error("Test FAIL for {} with {} - HTTP 200, status={}, time={}ms - local-processing but no tunnel links", api, friendlyService, status, time);
-                        instance.addResult(new TestResult(serviceId, false, "Forced local-processing, but no tunnel links returned"));
-                        return;
+                        record(false, "Forced local-processing, but no tunnel links returned");
+                        return Stage.DONE;
                     }
                     // check the headers for the tunnel urls
                     // it returns multiple, so just check the first one
-                    JSONArray tunnelUrls = jsonResponse.getJSONArray("tunnel");
-                    String tunnelUrl = StringUtil.rewrite(tunnelUrls.getString(0), instance.getApi(), protocol);
-                    checkHeaders(tunnelUrl, status, time);
-                    return;
+                    tunnelUrl = StringUtil.rewrite(apiResponse.tunnel(), instance.getApi(), protocol);
+                    tunnelStatus = status;
+                    return Stage.CHECK_TUNNEL;
                 }
                 if (status.equalsIgnoreCase("picker")) {
-                    JSONArray photos = jsonResponse.getJSONArray("picker");
-                    logger.info("Test PASS for {} with {} - HTTP 200, status={}, time={}ms, photos={}", api, friendlyService, status, time, photos.length());
-                    instance.addResult(new TestResult(serviceId, true, "Working, returned valid status (" + status + " with " + photos.length() + " photos)"));
-                    return;
+                    int photos = apiResponse.pickerCount();
+                    if (photos < 0) {
+                        logger.error("Test FAIL for {} with {} - HTTP 200, status={}, time={}ms - no picker items", api, friendlyService, status, time);
+                        record(false, "Returned picker, but no picker items");
+                        return Stage.DONE;
+                    }
+                    logger.info("Test PASS for {} with {} - HTTP 200, status={}, time={}ms, photos={}", api, friendlyService, status, time, photos);
+                    record(true, "Working, returned valid status (" + status + " with " + photos + " photos)");
+                    return Stage.DONE;
                 }
                 logger.info("Test PASS for {} with {} - HTTP 200, status={}, time={}ms", api, friendlyService, status, time);
-                instance.addResult(new TestResult(serviceId, true, "Working, returned valid status (" + status + ")"));
+                record(true, "Working, returned valid status (" + status + ")");
             } else {
                 logger.error("Test FAIL for {} with {} - HTTP 200, status={}, time={}ms", api, friendlyService, status, time);
-                instance.addResult(new TestResult(serviceId, false, "Invalid cobalt status (" + status + ")"));
+                record(false, "Invalid cobalt status (" + status + ")");
             }
+            return Stage.DONE;
+        }
+        // if we didn't get back a 200 response, it failed
+        String errorMessage;
+        // there SHOULD be an error message, so parse it
+        // cobalt 7 vs. 10 sends it back differently
+        if (apiResponse.errorCode() != null) {
+            errorMessage = apiResponse.errorCode();
+        } else if (apiResponse.text() != null) {
+            errorMessage = apiResponse.text();
         } else {
-            // if we didn't get back a 200 response, it failed
-            String errorMessage;
-            // there SHOULD be an error message, so parse it
-            // cobalt 7 vs. 10 sends it back differently
-            if (jsonResponse.has("error")) {
-                JSONObject errorBody = jsonResponse.getJSONObject("error");
-                errorMessage = errorBody.getString("code");
-            } else if (jsonResponse.has("text")) {
-                errorMessage = jsonResponse.getString("text");
-            } else {
-                errorMessage = "Unknown error, could not parse error from API";
-            }
+            errorMessage = "Unknown error, could not parse error from API";
+        }
 
-            // older cobalt shows error messages with HTML, parse it out
-            errorMessage = Jsoup.parse(errorMessage).text();
-            // if we got rate limited, rerun the test in a few seconds
-            if (status.equalsIgnoreCase("rate-limit") || errorMessage.contains("rate_exceeded")) {
-                // we maxed out the attempts for us to care
-                if (attempts >= 5) {
-                    logger.error("Test FAIL for {} with {} - attempts limit REACHED with {} tries, time={}ms", api, friendlyService, attempts, time);
-                    instance.addResult(new TestResult(serviceId, false, "Rate limited, max attempts reached (5)"));
-                    return;
-                }
-                // retry again, but randomize the time to prevent more rate limits
-                Random rand = new Random();
-                int secondsToWait = rand.nextInt(20 - 10 + 1) + 10;
-                logger.warn("Test RATE-LIMITED for {} with {} attempts={}, time={}ms - trying again in {} seconds", api, friendlyService, attempts, time, secondsToWait);
-                try {
-                    Thread.sleep(secondsToWait * 1000);
-                    runApiTest();
-                } catch (InterruptedException interruptedException) {
-                    logger.error("Rate-limit retry interrupted for {} with {}", api, friendlyService, interruptedException);
-                    instance.addResult(new TestResult(serviceId, false, interruptedException.toString()));
-                    return;
-                }
-                return;
-            }
-            // test failed for xyz reason
-            // this is a regular cobalt fail
-            logger.error("Test FAIL for {} with {} - HTTP {}, status=error, reason={}, time={}ms", api, friendlyService, responseCode, errorMessage, time);
-            instance.addResult(new TestResult(serviceId, false, errorMessage));
+        // older cobalt shows error messages with HTML, parse it out
+        errorMessage = Jsoup.parse(errorMessage).text();
+        // if we got rate limited, ask to run the test again later
+        if (status.equalsIgnoreCase("rate-limit") || errorMessage.contains("rate_exceeded")) {
+            logger.warn("Test RATE-LIMITED for {} with {} attempts={}, time={}ms", api, friendlyService, attempts, time);
+            retry = new Retry(Retry.Reason.RATE_LIMITED, "Rate limited", PacingController.parseRetryAfter(responseHeaders));
+            return Stage.RETRY;
         }
+        // test failed for xyz reason
+        // this is a regular cobalt fail
+        logger.error("Test FAIL for {} with {} - HTTP {}, status=error, reason={}, time={}ms", api, friendlyService, responseCode, errorMessage, time);
+        record(false, errorMessage);
+        return Stage.DONE;
     }
 
     /**
-     * Check the headers from the tunnel url.
+     * Check the start of the tunnel we downloaded. Data has to actually come out of it,
+     * and the length headers have to look like real media.
      *
-     * @param tunnelUrl The tunnel url to check,
-     * @param status    The status in the response.
-     * @param time      The time it took for the request.
+     * @param sample The sample of the tunnel, or null if the request failed.
+     * @param time   The time it took for the request.
      */
-    private void checkHeaders(String tunnelUrl, String status, long time) {
-        ContentLengthHeader checkTunnelLength = RequestUtil.checkTunnelLength(tunnelUrl);
+    private void checkTunnel(TunnelSample sample, long time) {
+        String status = tunnelStatus;
+        if (sample == null) {
+            logger.error("Test FAIL for {} with {} - HTTP 200, status={}, time={}ms - tunnel request failed", api, friendlyService, status, time);
+            record(false, "Returned " + status + ", but the tunnel did not respond");
+            return;
+        }
+        tunnelSample = sample;
+        CobaltDirectory.getTimeoutPolicy().record(instance.getApi(), "tunnel", sample.ttfb());
+        int tunnelCode = sample.responseCode();
+        if (tunnelCode != 200 && tunnelCode != 206) {
+            logger.error("Test FAIL for {} with {} - HTTP 200, status={}, time={}ms, tunnel HTTP {}", api, friendlyService, status, time, tunnelCode);
+            record(false, "Returned " + status + ", but the tunnel returned HTTP " + tunnelCode);
+            return;
+        }
+        if (sample.bytes() == 0) {
+            logger.error("Test FAIL for {} with {} - HTTP 200, status={}, time={}ms - tunnel sent no data", api, friendlyService, status, time);
+            record(false, "Returned " + status + ", but the tunnel sent no data");
+            return;
+        }
+        String speed = sample.throughput() >= 0 ? FileUtils.byteCountToDisplaySize(sample.throughput()) + "/s" : "unknown";
+        ContentLengthHeader checkTunnelLength = sample.length();
         // there were no content-length/estimated-content-length header
         // this usually means it's fine, but idk 100%
         if (checkTunnelLength == null) {
-            logger.warn("Test PASS for {} with {} - HTTP 200, status={}, time={}ms - missing content-length header", api, friendlyService, status, time);
-            instance.addResult(new TestResult(serviceId, true, "Working, returned valid status, but no content-length header to verify"));
+            logger.warn("Test PASS for {} with {} - HTTP 200, status={}, time={}ms, ttfb={}ms, speed={} - missing content-length header", api, friendlyService, status, time, sample.ttfb(), speed);
+            record(true, "Working, returned valid status, but no content-length header to verify");
             return;
         }
 
@@ -222,25 +512,25 @@ public class Test {
         String sizeReadable = FileUtils.byteCountToDisplaySize(size);
         // headers returned valid length
         if (size > 1000) {
-            logger.info("Test PASS for {} with {} - HTTP 200, status={}, time={}ms, size={}, header={}", api, friendlyService, status, time, size, header);
-            instance.addResult(new TestResult(serviceId, true, "Working, returned valid status, and has valid " + header + " header (" + sizeReadable + ")"));
+            logger.info("Test PASS for {} with {} - HTTP 200, status={}, time={}ms, size={}, header={}, ttfb={}ms, speed={}", api, friendlyService, status, time, size, header, sample.ttfb(), speed);
+            record(true, "Working, returned valid status, and has valid " + header + " header (" + sizeReadable + ")");
             return;
         }
         // headers reported 0 content length, which means it failed
         if (size == 0) {
             logger.error("Test FAIL for {} with {} - HTTP 200, status={}, time={}ms, size={}, header={}", api, friendlyService, status, time, size, header);
-            instance.addResult(new TestResult(serviceId, false, "Not working as " + header + " is 0"));
+            record(false, "Not working as " + header + " is 0");
             return;
         }
         // header length is too small for content
         if (size < 1000) {
             logger.error("Test FAIL for {} with {} - HTTP 200, status={}, time={}ms, size={}, header={} - too small", api, friendlyService, status, time, size, header);
-            instance.addResult(new TestResult(serviceId, false, "Not working as " + header + " is too small (" + size + ")"));
+            record(false, "Not working as " + header + " is too small (" + size + ")");
         }
     }
 
     @Override
     public String toString() {
-        return api + ":" + serviceId;
+        return (api != null ? api : testUrl) + ":" + serviceId;
     }
 }
\ No newline at end of file
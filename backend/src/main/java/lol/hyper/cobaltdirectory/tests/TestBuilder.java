@@ -1,105 +1,376 @@
 package lol.hyper.cobaltdirectory.tests;
 
+import lol.hyper.cobaltdirectory.instance.Instance;
 import lol.hyper.cobaltdirectory.requests.ApiCheck;
+import lol.hyper.cobaltdirectory.services.Services;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 public class TestBuilder {
 
     private ExecutorService executorService;
     private final int CORES = Runtime.getRuntime().availableProcessors();
     private final Logger logger = LogManager.getLogger(this);
+    private final ExecutionMode mode;
+    private final int concurrency;
+    private final int retries;
+    private final Semaphore inFlight;
+    private final TestScheduler testsQueue;
+    private final PacingController pacing = new PacingController();
+    // tests that already waited for their pacing slot
+    private final Set<Test> paced = ConcurrentHashMap.newKeySet();
+    // API checks plus tests that haven't finished, this grows as checks add their tests
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger remainingChecks = new AtomicInteger();
+    private final AtomicInteger totalTests = new AtomicInteger();
+    private final CountDownLatch done = new CountDownLatch(1);
+    // tests that were handed to the run and have no result yet
+    private final Set<Test> unfinished = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean stopped = false;
+    // held while tests are handed to the run and while the run is closed, so none slip in between
+    private final Object closing = new Object();
+    private final RunBudget budget;
+    private RetryScheduler retryScheduler;
+    private ExecutorService checkExecutor;
 
-    public void runApiInfoTests(List<ApiCheck> tests) {
-        ConcurrentLinkedQueue<ApiCheck> apiQueue = new ConcurrentLinkedQueue<>(tests);
-        CountDownLatch latch = new CountDownLatch(apiQueue.size());
-        int totalApis = apiQueue.size();
-        logger.info("Total APIs to check: {}", totalApis);
+    /**
+     * Create a TestBuilder.
+     *
+     * @param mode        How service tests should be executed.
+     * @param concurrency How many service tests can run at once, -1 for the mode's default.
+     * @param retries     How many retries the run gets, -1 for the default.
+     * @param perHost     How many tests can be in flight at once for one host (or hosts on the same IP), -1 for the default.
+     * @param services    The services, for their limits.
+     * @param budget      How long the run and each test can take.
+     */
+    public TestBuilder(ExecutionMode mode, int concurrency, int retries, int perHost, Services services, RunBudget budget) {
+        this.mode = mode;
+        this.budget = budget;
+        this.retries = retries;
+        if (concurrency > 0) {
+            this.concurrency = concurrency;
+        } else {
+            this.concurrency = mode == ExecutionMode.POOL ? CORES * 2 : 64;
+        }
+        this.inFlight = new Semaphore(this.concurrency);
+        // cobalt rate limits per IP, a few at a time per box keeps us under it
+        this.testsQueue = new TestScheduler(perHost > 0 ? perHost : 4, services.getLimits(), services.getDefaultLimit());
+    }
 
-        executorService = Executors.newFixedThreadPool(CORES * 2);
+    /**
+     * Create the executor for blocking work, based on the mode.
+     *
+     * @return The executor.
+     */
+    private ExecutorService newExecutor() {
+        if (mode == ExecutionMode.VIRTUAL) {
+            return Executors.newVirtualThreadPerTaskExecutor();
+        }
+        return Executors.newFixedThreadPool(concurrency);
+    }
 
-        // queue all tests
-        while (!apiQueue.isEmpty()) {
-            ApiCheck apiCheck = apiQueue.poll();
-            if (apiCheck != null) {
-                executorService.submit(() -> {
-                    try {
-                        apiCheck.run();
-                    } catch (Exception exception) {
-                        logger.error("API check failed due to an exception: {}", apiCheck, exception);
-                    } finally {
-                        latch.countDown();
-                    }
-                });
+    /**
+     * Wrap a task so it holds a permit while running. Virtual threads are unbounded,
+     * this is what keeps us from opening thousands of requests at once.
+     *
+     * @param permits The permits to take from, or null if the executor is already bounded.
+     * @param task    The task.
+     * @return The wrapped task.
+     */
+    private Runnable limited(Semaphore permits, Runnable task) {
+        if (permits == null) {
+            return task;
+        }
+        return () -> {
+            try {
+                permits.acquire();
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                return;
             }
+            try {
+                task.run();
+            } finally {
+                permits.release();
+            }
+        };
+    }
+
+    /**
+     * Run the API checks and the service tests as one pipeline. As soon as an API check
+     * finishes, the tests for that instance go into the queue, while the other checks
+     * are still running. This returns once every check and every test is done, or when
+     * the run budget is used up. Anything unfinished at that point is recorded as timed out.
+     *
+     * @param apiChecks     The API checks, one per instance.
+     * @param testFactory   Creates the tests for an instance after its API check.
+     * @param expectedTests Roughly how many tests the run will have, for the retry budget.
+     * @return How many tests were run.
+     */
+    public int run(List<ApiCheck> apiChecks, Function<Instance, List<Test>> testFactory, int expectedTests) {
+        retryScheduler = new RetryScheduler(retryBudget(expectedTests));
+        logger.info("Total APIs to check: {}, max in flight: {}, retry budget: {}", apiChecks.size(), concurrency, retryScheduler.getBudget());
+
+        executorService = mode == ExecutionMode.ASYNC ? null : newExecutor();
+        // API checks are blocking and short-lived, they get their own threads so they never wait behind tests
+        checkExecutor = newExecutor();
+        Semaphore checkPermits = mode == ExecutionMode.VIRTUAL ? new Semaphore(concurrency) : null;
+        remainingChecks.set(apiChecks.size());
+        // one extra until every check is submitted, so an early finish can't end the run
+        pending.set(apiChecks.size() + 1);
+
+        // feed tests from a separate thread so the progress logging below keeps going
+        // retried tests are put back into the same queue once their delay is up
+        Thread dispatcher = Thread.ofPlatform().name("test-dispatcher").daemon().start(this::dispatch);
+
+        for (ApiCheck apiCheck : apiChecks) {
+            checkExecutor.submit(limited(checkPermits, () -> {
+                List<Test> tests = List.of();
+                try {
+                    apiCheck.run();
+                    tests = testFactory.apply(apiCheck.getInstance());
+                } catch (Exception exception) {
+                    logger.error("API check failed due to an exception: {}", apiCheck, exception);
+                } finally {
+                    totalTests.addAndGet(tests.size());
+                    boolean added = false;
+                    synchronized (closing) {
+                        if (!closed.get()) {
+                            // count the tests before the check is marked done, so pending never hits 0 in between
+                            pending.addAndGet(tests.size());
+                            unfinished.addAll(tests);
+                            added = true;
+                        }
+                    }
+                    if (added) {
+                        tests.forEach(testsQueue::add);
+                    } else {
+                        // the run is already over, these never got a chance
+                        String why = stopped ? "run stopped" : "run budget";
+                        tests.forEach(test -> test.timedOut(why));
+                    }
+                    remainingChecks.decrementAndGet();
+                    complete();
+                }
+            }));
         }
-        executorService.shutdown();
+        checkExecutor.shutdown();
+        complete();
 
         try {
-            while (!latch.await(20, TimeUnit.SECONDS)) {
-                logger.info("Remaining API checks: {}", latch.getCount());
-                if (!apiQueue.isEmpty()) {
-                    logger.info("APIs still in queue: {}", apiQueue);
+            while (!done.await(Math.min(TimeUnit.SECONDS.toMillis(20), budget.runRemaining()), TimeUnit.MILLISECONDS)) {
+                if (budget.isRunOver()) {
+                    expire("run budget");
+                    break;
+                }
+                logger.info("Remaining API checks: {}, remaining tests: {}", remainingChecks.get(), pending.get() - remainingChecks.get());
+                if (!testsQueue.isEmpty()) {
+                    logger.info("Tests still in queue: {}", testsQueue.size());
                 }
             }
         } catch (InterruptedException exception) {
             logger.error("Execution was interrupted", exception);
         }
+        dispatcher.interrupt();
+        retryScheduler.shutdown();
+        if (executorService != null) {
+            executorService.shutdown();
+        }
 
         // check if tests completed
-        if (latch.getCount() == 0) {
-            logger.info("All API checks have completed!!!!");
+        if (stopped) {
+            logger.error("Run was stopped, API checks left: {}, tests timed out: {}", remainingChecks.get(), pending.get() - remainingChecks.get());
+        } else if (done.getCount() == 0) {
+            logger.info("All API checks and tests have completed!!!!");
+        } else if (closed.get()) {
+            logger.error("Run budget was used up, API checks left: {}, tests timed out: {}", remainingChecks.get(), pending.get() - remainingChecks.get());
         } else {
-            logger.error("There are API checks remaining that we did not complete :(((");
-            logger.error("API checks left: {}", latch.getCount());
+            logger.error("There are tests remaining that we did not complete :(((");
+            logger.error("API checks left: {}, tests left: {}", remainingChecks.get(), pending.get() - remainingChecks.get());
         }
+        return totalTests.get();
     }
 
-    public void runServiceTests(List<Test> tests) {
-        ConcurrentLinkedQueue<Test> testsQueue = new ConcurrentLinkedQueue<>(tests);
-        CountDownLatch latch = new CountDownLatch(testsQueue.size());
-        int totalTests = testsQueue.size();
-        logger.info("Total tests to process: {}", totalTests);
-
-        executorService = Executors.newFixedThreadPool(CORES * 2);
-
-        // queue all tests
-        while (!testsQueue.isEmpty()) {
-            Test test = testsQueue.poll();
-            if (test != null) {
+    /**
+     * Take tests off the queue and start them, as long as there are permits.
+     */
+    private void dispatch() {
+        while (done.getCount() > 0) {
+            Test test;
+            try {
+                test = testsQueue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException exception) {
+                return;
+            }
+            if (test == null) {
+                continue;
+            }
+            // the deadline covers every attempt, including time spent waiting for a retry
+            test.startClock(budget);
+            if (test.isExpired()) {
+                testsQueue.release(test);
+                test.timedOut("test deadline");
+                completeTest(test);
+                continue;
+            }
+            // hold the test back if its API asked us to slow down
+            if (!test.isFrontEnd() && !paced.remove(test)) {
+                long wait = pacing.reserve(test.getHost());
+                if (wait > 0) {
+                    paced.add(test);
+                    testsQueue.release(test);
+                    retryScheduler.later(() -> testsQueue.add(test), wait);
+                    continue;
+                }
+            }
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException exception) {
+                testsQueue.release(test);
+                return;
+            }
+            if (mode == ExecutionMode.ASYNC) {
+                CompletableFuture<Retry> future;
+                try {
+                    future = test.runAsync();
+                } catch (Exception exception) {
+                    future = CompletableFuture.failedFuture(exception);
+                }
+                // the request timeouts end at the deadline too, this catches anything still running past it
+                CompletableFuture<Retry> attempt = future;
+                retryScheduler.later(() -> {
+                    if (!attempt.isDone()) {
+                        test.timedOut("test deadline");
+                        test.cancel();
+                    }
+                }, Math.max(0, test.timeLeft()));
+                future.whenComplete((retry, throwable) -> {
+                    inFlight.release();
+                    testsQueue.release(test);
+                    // a cancelled test was already timed out
+                    if (throwable != null && !(throwable instanceof CancellationException) && !(throwable.getCause() instanceof CancellationException)) {
+                        logger.error("Test failed due to an exception: {}", test, throwable);
+                    }
+                    finish(test, retry);
+                });
+            } else {
                 executorService.submit(() -> {
+                    Retry retry = null;
                     try {
-                        test.run();
+                        retry = test.run();
                     } catch (Exception exception) {
                         logger.error("Test failed due to an exception: {}", test, exception);
                     } finally {
-                        latch.countDown();
+                        inFlight.release();
+                        testsQueue.release(test);
                     }
+                    finish(test, retry);
                 });
             }
         }
-        executorService.shutdown();
+    }
 
-        try {
-            while (!latch.await(20, TimeUnit.SECONDS)) {
-                logger.info("Remaining tests: {}", latch.getCount());
-                if (!testsQueue.isEmpty()) {
-                    logger.info("Tests still in queue: {}", testsQueue);
+    /**
+     * Handle a test after one of its attempts. Either it's done, it goes back into the
+     * queue after a delay, or it's out of retries and records its failure.
+     *
+     * @param test  The test.
+     * @param retry The retry the test asked for, or null if it's done.
+     */
+    private void finish(Test test, Retry retry) {
+        if (!test.isFrontEnd()) {
+            pacing.update(test.getHost(), test.getResponseHeaders());
+        }
+        if (retry != null) {
+            if (test.isExpired()) {
+                test.timedOut("test deadline");
+            } else {
+                RetryScheduler.Outcome outcome = retryScheduler.schedule(test, retry, () -> testsQueue.add(test));
+                if (outcome == RetryScheduler.Outcome.SCHEDULED) {
+                    return;
                 }
+                test.giveUp(retry, outcome);
             }
-        } catch (InterruptedException exception) {
-            logger.error("Execution was interrupted", exception);
         }
+        completeTest(test);
+    }
 
-        // check if tests completed
-        if (latch.getCount() == 0) {
-            logger.info("All tests have completed!!!!");
-        } else {
-            logger.error("There are tests remaining that we did not complete :(((");
-            logger.error("Tests left: {}", latch.getCount());
+    /**
+     * Mark a test as done.
+     *
+     * @param test The test.
+     */
+    private void completeTest(Test test) {
+        if (unfinished.remove(test)) {
+            complete();
+        }
+    }
+
+    /**
+     * Stop the run early, like when nobody is left to take the results. Every test that has no
+     * result is timed out, and run() returns without waiting for the rest.
+     */
+    public void stop() {
+        stopped = true;
+        expire("run stopped");
+        done.countDown();
+    }
+
+    /**
+     * The run is over. Record every test that has no result as timed out and stop
+     * its request. Async tests have their request cancelled, and the workers of blocking tests
+     * are interrupted, which makes HttpClient cancel the request they are waiting on.
+     *
+     * @param why Why the run is over, for the tests' results.
+     */
+    private void expire(String why) {
+        List<Test> left;
+        synchronized (closing) {
+            // the budget and a stop can both end the run, only the first one does anything
+            if (closed.getAndSet(true)) {
+                return;
+            }
+            left = List.copyOf(unfinished);
+        }
+        logger.error("Run is over ({}), timing out {} tests", why, left.size());
+        for (Test test : left) {
+            test.timedOut(why);
+            test.cancel();
+        }
+        checkExecutor.shutdownNow();
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Mark one API check or test as done, and end the run if it was the last one.
+     */
+    private void complete() {
+        if (pending.decrementAndGet() == 0) {
+            done.countDown();
+        }
+    }
+
+    /**
+     * How many retries the whole run gets.
+     *
+     * @param totalTests How many tests are in the run.
+     * @return The budget.
+     */
+    private int retryBudget(int totalTests) {
+        if (retries >= 0) {
+            return retries;
         }
+        // enough for a quarter of the tests to retry once
+        return Math.max(20, totalTests / 4);
     }
 }
@@ -0,0 +1,182 @@
+package lol.hyper.cobaltdirectory.tests;
+
+import lol.hyper.cobaltdirectory.instance.Instance;
+import lol.hyper.cobaltdirectory.utils.FileUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the last few outcomes of every instance and service, so runs can skip pairs
+ * that keep passing. A pair that passed its last few runs in a row is only tested again
+ * after a longer, randomized wait, and its last result is carried forward until then.
+ * Anything that failed or flipped recently is tested every run, and so is every pair of
+ * an instance whose version or start time changed.
+ */
+public class TestHistory {
+
+    // how many outcomes to keep per pair
+    private static final int WINDOW = 20;
+    // passes in a row before a pair counts as stable
+    private static final int STABLE_RUNS = 5;
+    private static final long STABLE_CADENCE = TimeUnit.HOURS.toMillis(6);
+
+    private final Logger logger = LogManager.getLogger(this);
+    private final File file;
+    private final Map<String, InstanceHistory> instances = new ConcurrentHashMap<>();
+
+    /**
+     * What we know about one instance.
+     */
+    private static class InstanceHistory {
+        private String version;
+        private long startTime;
+        private final Map<String, Entry> services = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * The history of one service on one instance.
+     *
+     * @param outcomes   The last outcomes, oldest first, P for pass and F for fail.
+     * @param lastTested When the pair was last tested.
+     * @param nextTest   When a stable pair has to be tested again, 0 if it isn't stable.
+     * @param message    The message from the last test.
+     */
+    private record Entry(String outcomes, long lastTested, long nextTest, String message) {
+
+        boolean lastPassed() {
+            return outcomes.endsWith("P");
+        }
+
+        boolean isStable() {
+            return outcomes.length() >= STABLE_RUNS && outcomes.substring(outcomes.length() - STABLE_RUNS).chars().allMatch(c -> c == 'P');
+        }
+    }
+
+    public TestHistory(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Load the history from disk. A missing or broken file just means no history.
+     */
+    public void load() {
+        if (!file.exists()) {
+            logger.info("No test history at {}, testing everything", file.getAbsolutePath());
+            return;
+        }
+        String contents = FileUtil.readFile(file);
+        if (contents == null) {
+            return;
+        }
+        try {
+            JSONObject json = new JSONObject(contents);
+            for (String api : json.keySet()) {
+                JSONObject object = json.getJSONObject(api);
+                InstanceHistory history = new InstanceHistory();
+                history.version = object.optString("version", null);
+                history.startTime = object.optLong("startTime", 0);
+                JSONObject services = object.getJSONObject("services");
+                for (String service : services.keySet()) {
+                    JSONObject entry = services.getJSONObject(service);
+                    history.services.put(service, new Entry(entry.getString("outcomes"), entry.getLong("lastTested"), entry.optLong("nextTest", 0), entry.optString("message", "")));
+                }
+                instances.put(api, history);
+            }
+        } catch (JSONException exception) {
+            logger.warn("Test history {} is invalid, testing everything", file.getAbsolutePath(), exception);
+            instances.clear();
+            return;
+        }
+        logger.info("Loaded test history for {} instances", instances.size());
+    }
+
+    /**
+     * Save the history to disk.
+     */
+    public void save() {
+        JSONObject json = new JSONObject();
+        instances.forEach((api, history) -> {
+            JSONObject object = new JSONObject();
+            object.put("version", history.version);
+            object.put("startTime", history.startTime);
+            JSONObject services = new JSONObject();
+            history.services.forEach((service, entry) -> {
+                JSONObject value = new JSONObject();
+                value.put("outcomes", entry.outcomes());
+                value.put("lastTested", entry.lastTested());
+                value.put("nextTest", entry.nextTest());
+                value.put("message", entry.message());
+                services.put(service, value);
+            });
+            object.put("services", services);
+            json.put(api, object);
+        });
+        FileUtil.writeFile(json.toString(), file);
+    }
+
+    /**
+     * Get the last result for a pair, if it is stable and not due for a test yet.
+     * Call this after the instance's API check.
+     *
+     * @param instance  The instance.
+     * @param serviceId The service.
+     * @return The last result to carry forward, or null if the pair should be tested.
+     */
+    public TestResult carryForward(Instance instance, String serviceId) {
+        InstanceHistory history = instances.get(instance.getApi());
+        if (history == null) {
+            return null;
+        }
+        // a new version or a restart can change anything, test it all
+        if (!Objects.equals(history.version, instance.getVersion()) || history.startTime != instance.getStartTime()) {
+            return null;
+        }
+        Entry entry = history.services.get(serviceId);
+        if (entry == null || !entry.isStable() || System.currentTimeMillis() >= entry.nextTest()) {
+            return null;
+        }
+        return new TestResult(serviceId, entry.lastPassed(), entry.message(), null, null, entry.lastTested());
+    }
+
+    /**
+     * Add an instance's new results to its history. Results that were carried forward
+     * are skipped, they were not tested.
+     *
+     * @param instance The instance, after its tests.
+     */
+    public void record(Instance instance) {
+        if (!instance.isApiWorking()) {
+            return;
+        }
+        InstanceHistory history = instances.computeIfAbsent(instance.getApi(), key -> new InstanceHistory());
+        history.version = instance.getVersion();
+        history.startTime = instance.getStartTime();
+        for (TestResult result : instance.getTestResults()) {
+            history.services.compute(result.service(), (service, entry) -> {
+                if (entry != null && entry.lastTested() == result.testedAt()) {
+                    return entry;
+                }
+                String outcomes = (entry == null ? "" : entry.outcomes()) + (result.status() ? "P" : "F");
+                if (outcomes.length() > WINDOW) {
+                    outcomes = outcomes.substring(outcomes.length() - WINDOW);
+                }
+                Entry updated = new Entry(outcomes, result.testedAt(), 0, result.message());
+                if (updated.isStable()) {
+                    // somewhere between half and one and a half times the cadence, so they don't all come due together
+                    long wait = (long) (STABLE_CADENCE * ThreadLocalRandom.current().nextDouble(0.5, 1.5));
+                    updated = new Entry(outcomes, result.testedAt(), result.testedAt() + wait, result.message());
+                }
+                return updated;
+            });
+        }
+    }
+}
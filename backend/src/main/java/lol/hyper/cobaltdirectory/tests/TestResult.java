@@ -1,6 +1,17 @@
 package lol.hyper.cobaltdirectory.tests;
 
-public record TestResult(String service, boolean status, String message) {
+import lol.hyper.cobaltdirectory.requests.RequestTiming;
+import lol.hyper.cobaltdirectory.requests.TunnelSample;
+
+public record TestResult(String service, boolean status, String message, RequestTiming timing, TunnelSample tunnel, long testedAt) {
+
+    public TestResult(String service, boolean status, String message) {
+        this(service, status, message, null, null);
+    }
+
+    public TestResult(String service, boolean status, String message, RequestTiming timing, TunnelSample tunnel) {
+        this(service, status, message, timing, tunnel, System.currentTimeMillis());
+    }
 
     @Override
     public String toString() {
@@ -0,0 +1,220 @@
+package lol.hyper.cobaltdirectory.tests;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out tests fairly across hosts. Each host has its own queue, and hosts take turns
+ * so one instance with a lot of queued tests can't hog every worker. Hosts that resolve to
+ * the same IP are usually the same box, so they share one cap on tests in flight.
+ * <p>
+ * Services can have a cap too. Every instance tests the same URL for a service, and too many
+ * at once gets the instances throttled by that service. A host whose next test is for a
+ * service at its cap runs one of its other tests instead.
+ */
+public class TestScheduler {
+
+    private final Logger logger = LogManager.getLogger(this);
+    private final int maxPerIp;
+    private final Map<String, Integer> serviceLimits;
+    private final int defaultServiceLimit;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    // hosts with queued tests, in the order they get their next turn
+    private final ArrayDeque<String> turns = new ArrayDeque<>();
+    private final Map<String, ArrayDeque<Test>> queues = new HashMap<>();
+    private final Map<String, Integer> inFlight = new HashMap<>();
+    private final Map<String, Integer> serviceInFlight = new HashMap<>();
+    private final Map<String, String> addresses = new ConcurrentHashMap<>();
+    private int size = 0;
+
+    /**
+     * Create a TestScheduler.
+     *
+     * @param maxPerIp            How many tests can be in flight at once for hosts on the same IP.
+     * @param serviceLimits       How many tests can be in flight at once per service id.
+     * @param defaultServiceLimit The limit for services not in serviceLimits, -1 for none. Frontend tests only have a cap if serviceLimits has one.
+     */
+    public TestScheduler(int maxPerIp, Map<String, Integer> serviceLimits, int defaultServiceLimit) {
+        this.maxPerIp = maxPerIp;
+        this.serviceLimits = serviceLimits;
+        this.defaultServiceLimit = defaultServiceLimit;
+    }
+
+    /**
+     * Queue a test.
+     *
+     * @param test The test.
+     */
+    public void add(Test test) {
+        String host = test.getHost();
+        // resolve outside the lock, it can be slow
+        address(host);
+        lock.lock();
+        try {
+            ArrayDeque<Test> queue = queues.computeIfAbsent(host, key -> new ArrayDeque<>());
+            if (queue.isEmpty()) {
+                turns.addLast(host);
+            }
+            queue.addLast(test);
+            size++;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take the next test whose IP has room for another one. The test holds its slot
+     * until {@link #release(Test)} is called.
+     *
+     * @param timeout How long to wait.
+     * @param unit    The unit of the timeout.
+     * @return The test, or null if none could run before the timeout.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public Test poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                Test test = next();
+                if (test != null) {
+                    return test;
+                }
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = changed.awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Give back the slot a test took.
+     *
+     * @param test The test.
+     */
+    public void release(Test test) {
+        String address = address(test.getHost());
+        lock.lock();
+        try {
+            inFlight.merge(address, -1, TestScheduler::decrement);
+            serviceInFlight.merge(test.getServiceId(), -1, TestScheduler::decrement);
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * How many tests are waiting.
+     *
+     * @return The number of queued tests.
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Go through the hosts in turn and take a test from the first one with room.
+     * Must be called with the lock held.
+     *
+     * @return The test, or null if every host with tests is at its cap.
+     */
+    private Test next() {
+        Iterator<String> iterator = turns.iterator();
+        while (iterator.hasNext()) {
+            String host = iterator.next();
+            String address = addresses.get(host);
+            if (inFlight.getOrDefault(address, 0) >= maxPerIp) {
+                continue;
+            }
+            ArrayDeque<Test> queue = queues.get(host);
+            Test test = takeRunnable(queue);
+            if (test == null) {
+                continue;
+            }
+            iterator.remove();
+            if (!queue.isEmpty()) {
+                // back of the line for its next test
+                turns.addLast(host);
+            }
+            inFlight.merge(address, 1, Integer::sum);
+            serviceInFlight.merge(test.getServiceId(), 1, Integer::sum);
+            size--;
+            return test;
+        }
+        return null;
+    }
+
+    /**
+     * Take the first test in a host's queue whose service has room.
+     *
+     * @param queue The host's queue.
+     * @return The test, or null if every service in the queue is at its cap.
+     */
+    private Test takeRunnable(ArrayDeque<Test> queue) {
+        Iterator<Test> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            Test test = iterator.next();
+            String service = test.getServiceId();
+            // a frontend test goes to the instance's own frontend, not a shared service, so the default cap doesn't apply
+            int limit = serviceLimits.getOrDefault(service, test.isFrontEnd() ? -1 : defaultServiceLimit);
+            if (limit > 0 && serviceInFlight.getOrDefault(service, 0) >= limit) {
+                continue;
+            }
+            iterator.remove();
+            return test;
+        }
+        return null;
+    }
+
+    private static Integer decrement(Integer current, Integer change) {
+        int value = current + change;
+        // drop it at zero so the maps don't fill with idle keys
+        return value <= 0 ? null : value;
+    }
+
+    /**
+     * Get the IP a host resolves to, once per host. Hosts that don't resolve count as their own IP.
+     *
+     * @param host The host.
+     * @return The IP, or the host.
+     */
+    private String address(String host) {
+        return addresses.computeIfAbsent(host, key -> {
+            try {
+                // hosts can have a port or path on them
+                String name = URI.create("http://" + key).getHost();
+                return InetAddress.getByName(name != null ? name : key).getHostAddress();
+            } catch (UnknownHostException | IllegalArgumentException | SecurityException exception) {
+                logger.warn("Unable to resolve {}, it gets its own test budget", key);
+                return key;
+            }
+        });
+    }
+}
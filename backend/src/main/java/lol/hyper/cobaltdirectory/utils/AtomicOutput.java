@@ -0,0 +1,189 @@
+package lol.hyper.cobaltdirectory.utils;
+
+import org.apache.commons.io.output.TeeOutputStream;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes an output file without readers ever seeing half of it. Everything goes to a temp
+ * file next to the target as UTF-8, which is synced and renamed over the target once it is
+ * complete. It can also write a .gz copy in the same pass, for servers that send precompressed
+ * files. Values are written as they come, so a large file never has to be built in memory.
+ */
+public class AtomicOutput implements Closeable {
+
+    private final File target;
+    private final File temp;
+    private final FileOutputStream out;
+    private final File gzipTarget;
+    private final File gzipTemp;
+    private final FileOutputStream gzipOut;
+    private final GZIPOutputStream gzip;
+    private final Writer writer;
+    private boolean committed = false;
+    // for arrays, so the comma goes before every value but the first
+    private boolean first = true;
+
+    /**
+     * Start writing a file.
+     *
+     * @param target The file to replace once done.
+     * @param gzip   If a .gz copy should be written next to it.
+     * @throws IOException If the temp files can't be created.
+     */
+    public AtomicOutput(File target, boolean gzip) throws IOException {
+        this.target = target.getAbsoluteFile();
+        this.temp = new File(this.target.getParentFile(), "." + this.target.getName() + ".tmp");
+        this.out = new FileOutputStream(temp);
+        OutputStream stream = out;
+        if (gzip) {
+            this.gzipTarget = new File(this.target.getParentFile(), this.target.getName() + ".gz");
+            this.gzipTemp = new File(this.target.getParentFile(), "." + gzipTarget.getName() + ".tmp");
+            FileOutputStream gzipOut = null;
+            try {
+                gzipOut = new FileOutputStream(gzipTemp);
+                this.gzip = new GZIPOutputStream(gzipOut, 64 * 1024);
+            } catch (IOException exception) {
+                // nothing will close these if the constructor fails
+                if (gzipOut != null) {
+                    gzipOut.close();
+                    Files.deleteIfExists(gzipTemp.toPath());
+                }
+                out.close();
+                Files.deleteIfExists(temp.toPath());
+                throw exception;
+            }
+            this.gzipOut = gzipOut;
+            stream = new TeeOutputStream(out, this.gzip);
+        } else {
+            this.gzipTarget = null;
+            this.gzipTemp = null;
+            this.gzipOut = null;
+            this.gzip = null;
+        }
+        this.writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    /**
+     * Write raw text.
+     *
+     * @param text The text.
+     * @throws IOException If the write fails.
+     */
+    public void write(String text) throws IOException {
+        writer.write(text);
+    }
+
+    /**
+     * Start a JSON array.
+     */
+    public void beginArray() throws IOException {
+        writer.write('[');
+        first = true;
+    }
+
+    /**
+     * Write a JSON object.
+     *
+     * @param value The value.
+     */
+    public void value(JSONObject value) throws IOException {
+        value.write(writer);
+    }
+
+    /**
+     * Write one value of a JSON array.
+     *
+     * @param value The value.
+     */
+    public void arrayValue(JSONObject value) throws IOException {
+        if (!first) {
+            writer.write(',');
+        }
+        first = false;
+        value.write(writer);
+    }
+
+    public void endArray() throws IOException {
+        writer.write(']');
+    }
+
+    /**
+     * Finish the file, sync it to disk and move it over the target.
+     *
+     * @throws IOException If any of it fails. The target is left as it was.
+     */
+    public void commit() throws IOException {
+        writer.flush();
+        out.getFD().sync();
+        if (gzip != null) {
+            gzip.finish();
+            gzipOut.getFD().sync();
+        }
+        writer.close();
+        // the .gz first, so once the new file is in place its .gz is too
+        if (gzip != null) {
+            move(gzipTemp, gzipTarget);
+        }
+        move(temp, target);
+        committed = true;
+        syncDirectory(target.getParentFile().toPath());
+    }
+
+    /**
+     * Close the file. If it was not committed, the temp files are deleted and the target is untouched.
+     */
+    @Override
+    public void close() throws IOException {
+        if (committed) {
+            return;
+        }
+        try {
+            writer.close();
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+            if (gzipTemp != null) {
+                Files.deleteIfExists(gzipTemp.toPath());
+            }
+        }
+    }
+
+    /**
+     * Sync a folder, so the renames in it survive a crash too.
+     *
+     * @param directory The folder.
+     */
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException exception) {
+            // some platforms, like windows, can't open or sync a folder
+        }
+    }
+
+    private static void move(File from, File to) throws IOException {
+        Path source = from.toPath();
+        Path destination = to.toPath();
+        try {
+            Files.move(source, destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException exception) {
+            Files.move(source, destination, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
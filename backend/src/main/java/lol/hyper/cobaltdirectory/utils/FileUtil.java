@@ -4,9 +4,9 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.LineIterator;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -19,17 +19,32 @@ public class FileUtil {
     private static final Logger logger = LogManager.getLogger(FileUtil.class);
 
     /**
-     * Write contents of an object to a file.
+     * Write contents of an object to a file. The file is replaced in one go, so nothing
+     * reading it sees half of it.
      *
      * @param content The content to write.
      * @param file    The file to write to.
      */
     public static void writeFile(Object content, File file) {
+        writeFile(content, file, false);
+    }
+
+    /**
+     * Write contents of an object to a file, and optionally a .gz copy next to it.
+     *
+     * @param content The content to write. JSON objects are written without building a string first.
+     * @param file    The file to write to.
+     * @param gzip    If a .gz copy should be written too.
+     */
+    public static void writeFile(Object content, File file, boolean gzip) {
         logger.info("Writing to file {}", file.getAbsolutePath());
-        try {
-            FileWriter writer = new FileWriter(file);
-            writer.write(content.toString());
-            writer.close();
+        try (AtomicOutput output = new AtomicOutput(file, gzip)) {
+            if (content instanceof JSONObject json) {
+                output.value(json);
+            } else {
+                output.write(content.toString());
+            }
+            output.commit();
         } catch (IOException exception) {
             logger.error("Unable to write file {}", file, exception);
         }
@@ -0,0 +1,240 @@
+package lol.hyper.cobaltdirectory.utils;
+
+import lol.hyper.cobaltdirectory.server.Snapshot;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Works out what the web pages show once per run, so the web server doesn't have to parse
+ * all of results.json on every request. index.json has the totals and score of every instance,
+ * already split into official and community and sorted, plus the counts and results of each
+ * service. Each instance also gets a shard in instances/, named by the same id the web uses
+ * in its URLs.
+ * <p>
+ * Shards only have what the pages show. Timings and when each test ran change every run and
+ * stay in results.json, so a shard is only rewritten when the instance's state changes.
+ */
+public class PageIndex {
+
+    private static final Pattern PROTOCOL = Pattern.compile("^https?://");
+    private static final Pattern OFFICIAL = Pattern.compile("(^|\\.)imput\\.net$");
+    // measurements that are new every run, the pages don't show them
+    private static final List<String> RUN_FIELDS = List.of("network", "uptime");
+    private static final List<String> TEST_RUN_FIELDS = List.of("timing", "tunnel", "testedAt", "age");
+
+    private final Logger logger = LogManager.getLogger(this);
+    private final File indexFile;
+    private final File shardFolder;
+    // the content hash of each shard on disk, from the last index
+    private final Map<String, String> previousHashes = new HashMap<>();
+    private final List<JSONObject> entries = new ArrayList<>();
+    private final Map<String, int[]> serviceCounts = new TreeMap<>();
+    private final Map<String, String> serviceNames = new HashMap<>();
+    // each service's result on every instance, by instance id
+    private final Map<String, JSONObject> serviceResults = new HashMap<>();
+    private final Set<String> ids = new HashSet<>();
+    // gets the index and every shard too, if results are served from memory
+    private final Snapshot.Builder snapshot;
+    private int written = 0;
+
+    public PageIndex(File indexFile, File shardFolder, Snapshot.Builder snapshot) {
+        this.indexFile = indexFile;
+        this.shardFolder = shardFolder;
+        this.snapshot = snapshot;
+        if (!shardFolder.exists() && !shardFolder.mkdirs()) {
+            logger.error("Unable to create shard folder {}", shardFolder.getAbsolutePath());
+        }
+        loadHashes();
+    }
+
+    /**
+     * Add an instance. Its shard is written now, only the small index entry is kept.
+     *
+     * @param results The instance's entry in results.json, after it was written. It is changed into the shard.
+     */
+    public void add(JSONObject results) {
+        String host = PROTOCOL.matcher(results.getString("api")).replaceFirst("");
+        String id = makeId(host);
+        boolean online = results.optBoolean("online");
+        RUN_FIELDS.forEach(results::remove);
+
+        int up = 0;
+        int total = 0;
+        JSONObject tests = results.optJSONObject("tests");
+        if (tests != null) {
+            for (String service : tests.keySet()) {
+                JSONObject test = tests.getJSONObject(service);
+                TEST_RUN_FIELDS.forEach(test::remove);
+                boolean status = test.optBoolean("status");
+                total++;
+                if (status) {
+                    up++;
+                }
+                if (!service.equals("Frontend")) {
+                    int[] counts = serviceCounts.computeIfAbsent(service, key -> new int[2]);
+                    counts[1]++;
+                    if (status && online) {
+                        counts[0]++;
+                    }
+                    serviceNames.putIfAbsent(service, test.optString("friendly", service));
+                    JSONObject result = new JSONObject();
+                    result.put("status", status);
+                    result.put("message", test.optString("message"));
+                    serviceResults.computeIfAbsent(service, key -> new JSONObject()).put(id, result);
+                }
+            }
+        }
+        JSONObject totals = new JSONObject();
+        totals.put("up", up);
+        totals.put("total", total);
+        int score = total > 0 ? Math.round(up * 100f / total) : 0;
+
+        results.put("id", id);
+        results.put("totals", totals);
+        results.put("scorePct", online ? score : -1);
+        results.put("officialComputed", OFFICIAL.matcher(host.toLowerCase(Locale.ROOT)).find());
+
+        String shard = results.toString();
+        String hash = hash(shard);
+        File shardFile = new File(shardFolder, id + ".json");
+        if (!hash.equals(previousHashes.get(id)) || !shardFile.exists()) {
+            try (AtomicOutput output = new AtomicOutput(shardFile, false)) {
+                output.write(shard);
+                output.commit();
+                written++;
+            } catch (IOException exception) {
+                logger.error("Unable to write shard {}", shardFile.getAbsolutePath(), exception);
+                // write it again next time
+                hash = "";
+            }
+        }
+        ids.add(id);
+        if (snapshot != null) {
+            snapshot.put("/instances/" + id + ".json", shard);
+        }
+
+        // everything but the tests
+        JSONObject entry = new JSONObject();
+        for (String key : results.keySet()) {
+            if (!key.equals("tests")) {
+                entry.put(key, results.get(key));
+            }
+        }
+        entry.put("hash", hash);
+        entries.add(entry);
+    }
+
+    /**
+     * Write index.json and remove shards of instances that are gone.
+     */
+    public void write() {
+        Collator collator = Collator.getInstance(Locale.ROOT);
+        Comparator<JSONObject> sorter = Comparator.<JSONObject>comparingInt(entry -> -entry.getInt("scorePct"))
+                .thenComparing(entry -> entry.optString("frontend", ""), collator);
+        JSONArray official = new JSONArray();
+        JSONArray community = new JSONArray();
+        entries.stream().sorted(sorter).forEach(entry -> (entry.getBoolean("officialComputed") ? official : community).put(entry));
+
+        JSONArray services = new JSONArray();
+        serviceCounts.forEach((service, counts) -> {
+            JSONObject object = new JSONObject();
+            object.put("key", service);
+            object.put("name", serviceNames.get(service));
+            object.put("working", counts[0]);
+            object.put("total", counts[1]);
+            object.put("results", serviceResults.get(service));
+            services.put(object);
+        });
+
+        JSONObject index = new JSONObject();
+        index.put("generated", System.currentTimeMillis());
+        index.put("official", official);
+        index.put("community", community);
+        index.put("services", services);
+        FileUtil.writeFile(index, indexFile, true);
+        if (snapshot != null) {
+            snapshot.put("/index.json", index.toString());
+        }
+
+        File[] shards = shardFolder.listFiles((dir, name) -> name.endsWith(".json"));
+        if (shards != null) {
+            for (File shard : shards) {
+                String id = shard.getName().substring(0, shard.getName().length() - 5);
+                if (!ids.contains(id) && !shard.delete()) {
+                    logger.warn("Unable to delete old shard {}", shard.getAbsolutePath());
+                }
+            }
+        }
+        logger.info("Wrote {} of {} instance shards, the rest were unchanged", written, ids.size());
+    }
+
+    /**
+     * The id the web uses for an instance, the start of the SHA-256 of its API host.
+     *
+     * @param host The API host.
+     * @return The id.
+     */
+    public static String makeId(String host) {
+        return sha256(host.trim().toLowerCase(Locale.ROOT)).substring(0, 10);
+    }
+
+    private static String hash(String content) {
+        return sha256(content).substring(0, 16);
+    }
+
+    private static String sha256(String input) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(input.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException exception) {
+            // every JVM has SHA-256
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    private void loadHashes() {
+        if (!indexFile.exists()) {
+            return;
+        }
+        String contents = FileUtil.readFile(indexFile);
+        if (contents == null) {
+            return;
+        }
+        try {
+            JSONObject index = new JSONObject(contents);
+            for (String list : List.of("official", "community")) {
+                JSONArray array = index.optJSONArray(list);
+                if (array == null) {
+                    continue;
+                }
+                for (int i = 0; i < array.length(); i++) {
+                    JSONObject entry = array.getJSONObject(i);
+                    previousHashes.put(entry.getString("id"), entry.optString("hash"));
+                }
+            }
+        } catch (JSONException exception) {
+            logger.warn("Index {} is invalid, rewriting every shard", indexFile.getAbsolutePath(), exception);
+        }
+    }
+}
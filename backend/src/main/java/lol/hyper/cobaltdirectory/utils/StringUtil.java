@@ -20,12 +20,12 @@ public class StringUtil {
             return "";
         }
 
-        // java.net.SocketTimeoutException
-        if (input.contains("SocketTimeout")) {
-            return "Timed out (took over 20 seconds)";
+        // java.net.SocketTimeoutException, java.net.http.HttpTimeoutException
+        if (input.contains("SocketTimeout") || input.contains("TimeoutException")) {
+            return "Timed out";
         }
         // org.json.JSONException
-        if (input.contains("JSONException")) {
+        if (input.contains("JSONException") || input.startsWith("Malformed API response")) {
             return "Failed to parse API response (invalid JSON)";
         }
         // it seems like this service is not supported yet or your link is invalid. have you pasted the right link?
@@ -33,6 +33,31 @@ echo "Moving jar to $BACKEND_DIR"
 cp "$BACKEND_DIR/target/cobaltdirectory-latest.jar" .
 
 # ------------------------- Run Jar -----------------------------
+# extra args go to the jar, e.g. ./run.sh daemon=true interval=30 to keep it running,
+# or ./run.sh coordinator=0 workers=4 to split the tests over 4 worker processes.
+# the coordinator only listens on loopback, for workers on other hosts add bind=0.0.0.0 and
+# secret=<shared secret>, and start them with worker=<host>:<port> secret=<shared secret>
+# add serve=8080 to also serve the results from memory over HTTP, on loopback unless bind= is set
 echo "Running $BACKEND_DIR/cobaltdirectory-latest.jar"
-java -jar cobaltdirectory-latest.jar web=false
-echo "Finished with tests! Output is located at $BACKEND_DIR/results.json"
\ No newline at end of file
+java -jar cobaltdirectory-latest.jar web=false "$@"
+echo "Finished with tests! Output is located at $BACKEND_DIR/results.json"
+
+# ------------------------- Publish to web ------------------------
+# set WEB_DATA_DIR to the web's data folder to copy the output there after a run.
+# shards go first and index.json is moved in last, so the pages never see an index
+# pointing at shards that aren't there yet
+if [[ -n "${WEB_DATA_DIR:-}" ]]; then
+  # we are in the backend folder by now, relative paths are from where run.sh was started
+  [[ "$WEB_DATA_DIR" = /* ]] || WEB_DATA_DIR="$PROJECT_ROOT/$WEB_DATA_DIR"
+  mkdir -p "$WEB_DATA_DIR/instances"
+  if compgen -G "$BACKEND_DIR/instances/*.json" >/dev/null; then
+    cp "$BACKEND_DIR"/instances/*.json "$WEB_DATA_DIR/instances/"
+  fi
+  for file in results.json api.json api_frontends.json index.json; do
+    if [[ -f "$BACKEND_DIR/$file" ]]; then
+      cp "$BACKEND_DIR/$file" "$WEB_DATA_DIR/.$file.tmp"
+      mv "$WEB_DATA_DIR/.$file.tmp" "$WEB_DATA_DIR/$file"
+    fi
+  done
+  echo "Copied output to $WEB_DATA_DIR"
+fi
@@ -0,0 +1,130 @@
+import fs from 'node:fs';
+import path from 'node:path';
+import { env } from '$env/dynamic/private';
+import type { IndexEntry, Instance, PageIndex, ShardInstance } from '$lib/types';
+import { isOfficial } from '$lib/utils/official';
+import { makeHash } from '$lib/server/hash';
+
+type Computed = { index: PageIndex; shards: Map<string, ShardInstance> };
+
+// ids are the first 10 hex characters of a sha256, anything else can't be a shard
+const ID = /^[0-9a-f]{10}$/;
+
+let cached: { mtimeMs: number; index: PageIndex } | null = null;
+let cachedResults: { mtimeMs: number; computed: Computed } | null = null;
+
+const indexPath = () => path.resolve(env.API_INDEX_JSON_PATH ?? 'data/index.json');
+const instancesDir = () => path.resolve(env.API_INSTANCES_DIR ?? 'data/instances');
+const resultsPath = () => path.resolve(env.API_RESULTS_JSON_PATH ?? 'data/results.json');
+
+/**
+ * Read index.json, which the backend writes once per run. It is only parsed again when the
+ * file changes. Returns null if there is no index yet.
+ */
+function readIndexFile(): PageIndex | null {
+	const filePath = indexPath();
+	let stats: fs.Stats;
+	try {
+		stats = fs.statSync(filePath);
+	} catch (err) {
+		if ((err as NodeJS.ErrnoException).code === 'ENOENT') return null;
+		throw err;
+	}
+	if (cached && cached.mtimeMs === stats.mtimeMs) {
+		return cached.index;
+	}
+	const index = JSON.parse(fs.readFileSync(filePath, 'utf-8')) as PageIndex;
+	cached = { mtimeMs: stats.mtimeMs, index };
+	return index;
+}
+
+/**
+ * Work out the index and shards from results.json, the way the backend does. Only used
+ * when index.json isn't there, like before the first run with a backend that writes it.
+ * Like the index, it is only worked out again when results.json changes.
+ */
+function fromResults(): Computed {
+	const filePath = resultsPath();
+	const stats = fs.statSync(filePath);
+	if (cachedResults && cachedResults.mtimeMs === stats.mtimeMs) {
+		return cachedResults.computed;
+	}
+	const instances = JSON.parse(fs.readFileSync(filePath, 'utf-8')) as Instance[];
+
+	const shards = new Map<string, ShardInstance>();
+	const services = new Map<string, PageIndex['services'][number]>();
+	for (const inst of instances) {
+		const id = makeHash((inst.api ?? '').replace(/^https?:\/\//, ''));
+		const online = inst.online !== false;
+		const tests = Object.entries(inst.tests ?? {});
+		const up = tests.filter(([, t]) => t.status).length;
+		const score = tests.length > 0 ? Math.round((up / tests.length) * 100) : 0;
+		shards.set(id, {
+			...inst,
+			id,
+			totals: { up, total: tests.length },
+			scorePct: online ? score : -1,
+			officialComputed: isOfficial(inst.api),
+			hash: ''
+		});
+		for (const [key, test] of tests) {
+			if (key.toLowerCase() === 'frontend') continue;
+			const service = services.get(key) ?? { key, name: test.friendly ?? key, working: 0, total: 0, results: {} };
+			service.total++;
+			if (test.status && online) service.working++;
+			service.results[id] = { status: test.status, message: test.message };
+			services.set(key, service);
+		}
+	}
+
+	const sorter = (a: IndexEntry, b: IndexEntry) =>
+		b.scorePct - a.scorePct || (a.frontend || '').localeCompare(b.frontend || '');
+	// the index has everything but the tests
+	const entries: IndexEntry[] = [...shards.values()].map((shard) => {
+		const entry: Partial<ShardInstance> = { ...shard };
+		delete entry.tests;
+		return entry as IndexEntry;
+	});
+	const index: PageIndex = {
+		generated: stats.mtimeMs,
+		official: entries.filter((i) => i.officialComputed).sort(sorter),
+		community: entries.filter((i) => !i.officialComputed).sort(sorter),
+		services: [...services.values()].sort((a, b) => a.key.localeCompare(b.key))
+	};
+	const computed = { index, shards };
+	cachedResults = { mtimeMs: stats.mtimeMs, computed };
+	return computed;
+}
+
+/**
+ * Get the index, from index.json or worked out from results.json if there is none.
+ */
+export function readIndex(): PageIndex {
+	return readIndexFile() ?? fromResults().index;
+}
+
+/**
+ * Get the index and one instance's shard together, so a page needs only one lookup.
+ * The shard is null if there is no instance with this id.
+ */
+export function readInstance(id: string): { index: PageIndex; shard: ShardInstance | null } {
+	const index = readIndexFile();
+	if (!index) {
+		const computed = fromResults();
+		return { index: computed.index, shard: ID.test(id) ? (computed.shards.get(id) ?? null) : null };
+	}
+	return { index, shard: readShard(id) };
+}
+
+/**
+ * Read one instance's shard from the instances folder, or null if there is none.
+ */
+function readShard(id: string): ShardInstance | null {
+	if (!ID.test(id)) return null;
+	try {
+		return JSON.parse(fs.readFileSync(path.join(instancesDir(), `${id}.json`), 'utf-8')) as ShardInstance;
+	} catch (err) {
+		if ((err as NodeJS.ErrnoException).code === 'ENOENT') return null;
+		throw err;
+	}
+}
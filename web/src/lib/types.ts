@@ -15,3 +15,29 @@ export type Instance = {
 	official?: boolean;
 	startTime?: number;
 };
+
+export type IndexEntry = Omit<Instance, 'tests'> & {
+	id: string;
+	totals: { up: number; total: number };
+	scorePct: number;
+	officialComputed: boolean;
+	hash: string;
+};
+
+export type ShardInstance = IndexEntry & {
+	tests: Record<string, ServiceResult>;
+};
+
+export type PageIndex = {
+	generated: number;
+	official: IndexEntry[];
+	community: IndexEntry[];
+	services: {
+		key: string;
+		name: string;
+		working: number;
+		total: number;
+		// each instance's result for the service, by instance id
+		results: Record<string, Pick<ServiceResult, 'status' | 'message'>>;
+	}[];
+};
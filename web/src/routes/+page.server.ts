@@ -1,54 +1,28 @@
 import type { PageServerLoad } from './$types';
-import type { Instance } from '$lib/types';
-import { isOfficial } from '$lib/utils/official';
-import { makeHash } from '$lib/server/hash';
-
-const hostOnly = (v?: string) => (v ?? '').replace(/^https?:\/\//, '');
+import type { IndexEntry } from '$lib/types';
+import { readIndex } from '$lib/server/precomputed';
 
 const unixToMs = (v?: number | null) => {
 	if (!v) return null;
 	return v < 1e12 ? v * 1000 : v;
 };
 
-export const load: PageServerLoad = async ({ fetch }) => {
-	const res = await fetch('/api/tests');
-	if (!res.ok) throw new Error('Failed to fetch tests');
-
-	const json = await res.json();
-	const instances = json.data as Instance[];
-	const lastUpdatedUTC = json.lastUpdatedUTC as string;
+export const load: PageServerLoad = async () => {
+	// scores, ids and the official/community split are worked out by the backend
+	const index = readIndex();
+	const lastUpdatedUTC = new Date(index.generated).toISOString();
 
 	const now = Date.now();
 
-	const enriched = instances.map((inst) => {
-		const apiHost = hostOnly(inst.api);
-		const id = apiHost ? makeHash(apiHost) : null;
-
-		const entries = Object.values(inst.tests ?? {});
-		const total = entries.length;
-		const up = entries.filter((t) => t.status).length;
-		const scorePct = total > 0 ? Math.round((up / total) * 100) : 0;
-
-		const startMs = unixToMs((inst as any).startTime);
+	const withUptime = (inst: IndexEntry) => {
+		const startMs = unixToMs(inst.startTime);
 		const online = inst.online !== false;
 		const onlineForMs = online && startMs && startMs <= now ? now - startMs : null;
+		return { ...inst, online, onlineForMs };
+	};
 
-		return {
-			...inst,
-			id,
-			totals: { up, total },
-			scorePct: online ? scorePct : -1,
-			officialComputed: isOfficial(inst.api),
-			online,
-			onlineForMs
-		};
-	});
-
-	const sorter = (a: (typeof enriched)[number], b: (typeof enriched)[number]) =>
-		b.scorePct - a.scorePct || (a.frontend || '').localeCompare(b.frontend || '');
-
-	const official = enriched.filter((i) => i.officialComputed).sort(sorter);
-	const community = enriched.filter((i) => !i.officialComputed).sort(sorter);
+	const official = index.official.map(withUptime);
+	const community = index.community.map(withUptime);
 
 	return { official, community, lastUpdatedUTC };
 };
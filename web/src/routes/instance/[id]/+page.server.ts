@@ -1,11 +1,6 @@
 import type { PageServerLoad } from './$types';
-import type { Instance, ServiceResult } from '$lib/types';
-import { makeHash } from '$lib/server/hash';
-
-type TestsResponse = {
-	data: Instance[];
-	lastUpdatedUTC: string;
-};
+import type { ServiceResult } from '$lib/types';
+import { readInstance } from '$lib/server/precomputed';
 
 type ServiceRow = {
 	key: string;
@@ -16,14 +11,10 @@ type ServiceRow = {
 
 const stripProto = (v?: string) => (v ?? '').replace(/^https?:\/\//, '');
 
-export const load: PageServerLoad = async ({ fetch, params }) => {
-	const res = await fetch('/api/tests', { cache: 'no-store' });
-	if (!res.ok) throw new Error('Failed to fetch tests');
-
-	const { data: instances, lastUpdatedUTC } = (await res.json()) as TestsResponse;
-
-	const getId = (inst: Instance) => makeHash(stripProto(inst.api));
-	const inst = instances.find((i) => getId(i) === params.id);
+export const load: PageServerLoad = async ({ params }) => {
+	// the backend writes one shard per instance id, so only this instance is read
+	const { index, shard: inst } = readInstance(params.id);
+	const lastUpdatedUTC = new Date(index.generated).toISOString();
 
 	if (!inst) {
 		return {
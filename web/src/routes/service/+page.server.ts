@@ -1,26 +1,21 @@
 import type { PageServerLoad } from './$types';
-import type { Instance } from '$lib/types';
+import { readIndex } from '$lib/server/precomputed';
 
-export const load: PageServerLoad = async ({ fetch }) => {
-	const res = await fetch('/api/tests', { cache: 'no-store' });
-	if (!res.ok) throw new Error('Failed to fetch tests');
+export const load: PageServerLoad = async () => {
+	// the index has every service's result on every instance, so results.json isn't needed
+	const index = readIndex();
+	const lastUpdatedUTC = new Date(index.generated).toISOString();
 
-	const json = await res.json();
-	const instances = json.data as Instance[];
-	const lastUpdatedUTC = json.lastUpdatedUTC as string;
+	const instances = [...index.official, ...index.community].map((inst) => ({
+		id: inst.id,
+		api: inst.api,
+		frontend: inst.frontend,
+		online: inst.online,
+		startTime: inst.startTime,
+		officialComputed: inst.officialComputed
+	}));
 
-	const servicesMap = new Map<string, string>();
-	for (const inst of instances) {
-		for (const [key, val] of Object.entries(inst.tests ?? {})) {
-			if (key.toLowerCase() === 'frontend') continue;
-			const friendly = val?.friendly ?? key;
-			servicesMap.set(key, friendly);
-		}
-	}
-
-	const services = Array.from(servicesMap.entries())
-		.map(([key, name]) => ({ key, name }))
-		.sort((a, b) => a.name.localeCompare(b.name));
+	const services = [...index.services].sort((a, b) => a.name.localeCompare(b.name));
 
 	return {
 		instances,